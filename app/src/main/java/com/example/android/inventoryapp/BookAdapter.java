@@ -0,0 +1,276 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookWriter;
+import com.example.android.inventoryapp.image.ImageLoader;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+
+/**
+ * {@link RecyclerView} adapter for the books of the catalogue. When a new list of books is
+ * submitted, the difference with the current one is worked out on a background thread, so only
+ * the rows that actually changed are rebound and animated. A row whose quantity alone changed,
+ * after a sale for instance, only has its quantity rebound. Binding a row allocates nothing: the
+ * text is formatted with the item and the click listeners are shared by all the rows.
+ */
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
+
+    /**
+     * Payload of a change to the quantity of a book only
+     */
+    private static final Object PAYLOAD_QUANTITY = new Object();
+
+    /**
+     * Works out the differences between lists, one at a time
+     */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Loads the book images off the main thread
+     */
+    private final ImageLoader mImageLoader;
+    /**
+     * Sells the books off the main thread
+     */
+    private final BookWriter mWriter;
+    /**
+     * Size the book images are shown at, in pixels
+     */
+    private final int mImageSize;
+
+    /**
+     * Books shown, only changed on the main thread
+     */
+    private List<CatalogItem> mBooks = Collections.emptyList();
+    /**
+     * Incremented for every list submitted, so that outdated differences are dropped
+     */
+    private int mGeneration;
+
+    /**
+     * Opens the editor for the book of the clicked row. Shared by all the rows, which are tagged
+     * with their view holder.
+     */
+    private final View.OnClickListener mRowClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                editBook(holder.getItemId());
+            }
+        }
+    };
+    /**
+     * Sells a copy of the book of the row whose sale button was clicked. Shared by all the rows.
+     */
+    private final View.OnClickListener mSaleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                reduceBookQuantity(holder.getItemId());
+            }
+        }
+    };
+
+    /**
+     * Tells the user when a sale failed for lack of stock
+     */
+    private final BookWriter.Callback<Integer> mSaleCallback = new BookWriter.Callback<Integer>() {
+        @Override
+        public void onWriteComplete(Integer stock) {
+            if (stock < 0) {
+                Toast.makeText(mContext, R.string.no_stock, Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    public BookAdapter(Context context) {
+        mContext = context;
+        mInflater = LayoutInflater.from(context);
+        mImageLoader = ImageLoader.getInstance(context);
+        mWriter = BookWriter.getInstance(context);
+        mImageSize = context.getResources().getDimensionPixelSize(R.dimen.image_width);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given books. The rows are updated once the differences with the books shown now
+     * have been worked out. Must be called on the main thread, with a list that is never
+     * modified afterwards.
+     */
+    void submitList(final List<CatalogItem> books) {
+        final int generation = ++mGeneration;
+        final List<CatalogItem> oldBooks = mBooks;
+        if (books == oldBooks) {
+            return;
+        }
+        // Nothing to compare when either list is empty
+        if (oldBooks.isEmpty() || books.isEmpty()) {
+            mBooks = books;
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffCallback(oldBooks, books));
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mBooks = books;
+                            result.dispatchUpdatesTo(BookAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return mBooks.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mBooks.get(position).mId;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        ViewHolder holder = new ViewHolder(mInflater.inflate(R.layout.book_list_item, parent, false));
+        holder.itemView.setTag(holder);
+        holder.itemView.setOnClickListener(mRowClickListener);
+        holder.mSaleButton.setTag(holder);
+        holder.mSaleButton.setOnClickListener(mSaleClickListener);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        CatalogItem book = mBooks.get(position);
+        mImageLoader.load(book.mImage, holder.mImageView, mImageSize);
+        holder.mTitleTextView.setText(book.mTitle);
+        holder.mPriceTextView.setText(book.mPriceText);
+        holder.mQuantityTextView.setText(book.mQuantityText);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (!payloads.isEmpty()) {
+            // Only the quantity changed (PAYLOAD_QUANTITY is the only payload), so leave the
+            // image and the other fields as they are
+            holder.mQuantityTextView.setText(mBooks.get(position).mQuantityText);
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    /**
+     * Sell one copy of the given book. The provider decrements the stock itself, so the
+     * quantity shown in the list may be stale without losing a sale.
+     */
+    private void reduceBookQuantity(long bookId) {
+        mWriter.sell(bookId, 1, mSaleCallback);
+    }
+
+    /**
+     * Open the editor for the given book.
+     */
+    private void editBook(long bookId) {
+        Intent intent = new Intent(mContext, EditorActivity.class);
+        Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId);
+        intent.setData(currentBookUri);
+        mContext.startActivity(intent);
+    }
+
+    /**
+     * Holds the views of a row. Created once per row view.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        @BindView(R.id.title)
+        TextView mTitleTextView;
+        @BindView(R.id.price)
+        TextView mPriceTextView;
+        @BindView(R.id.quantity)
+        TextView mQuantityTextView;
+        @BindView(R.id.book_image)
+        ImageView mImageView;
+        @BindView(R.id.button_sale)
+        Button mSaleButton;
+
+        ViewHolder(View view) {
+            super(view);
+            ButterKnife.bind(this, view);
+        }
+    }
+
+    /**
+     * Compares two lists of books, matching the books by ID.
+     */
+    private static class DiffCallback extends DiffUtil.Callback {
+        private final List<CatalogItem> mOldBooks;
+        private final List<CatalogItem> mNewBooks;
+
+        DiffCallback(List<CatalogItem> oldBooks, List<CatalogItem> newBooks) {
+            mOldBooks = oldBooks;
+            mNewBooks = newBooks;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldBooks.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewBooks.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.get(oldItemPosition).mId == mNewBooks.get(newItemPosition).mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldBooks.get(oldItemPosition).equals(mNewBooks.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            if (mOldBooks.get(oldItemPosition).sameExceptQuantity(mNewBooks.get(newItemPosition))) {
+                return PAYLOAD_QUANTITY;
+            }
+            return null;
+        }
+    }
+}
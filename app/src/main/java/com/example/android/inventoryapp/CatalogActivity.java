@@ -1,38 +1,105 @@
 package com.example.android.inventoryapp;
 
+import android.annotation.TargetApi;
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.Book;
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookExporter;
+import com.example.android.inventoryapp.data.BookImporter;
+import com.example.android.inventoryapp.data.BookWriter;
+import com.example.android.inventoryapp.image.ImageLoader;
+import com.example.android.inventoryapp.image.ThumbnailGenerator;
 
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.util.List;
+
+public class CatalogActivity extends AppCompatActivity implements CatalogPager.Listener {
 
     public static final String LOG_TAG = EditorActivity.class.getSimpleName();
 
-    private static final int BOOK_LOADER = 0;
     /**
-     * Adapter for the ListView
+     * Number of rows left below the last visible one when the next page starts loading
+     */
+    private static final int PREFETCH_DISTANCE = CatalogPager.PAGE_SIZE / 2;
+    /**
+     * Request code of the file picker for the books to import
+     */
+    private static final int PICK_IMPORT_REQUEST = 1;
+    /**
+     * Request codes of the file pickers for the exports
+     */
+    private static final int CREATE_CSV_EXPORT_REQUEST = 2;
+    private static final int CREATE_JSON_EXPORT_REQUEST = 3;
+    /**
+     * Types of the files that can be imported
+     */
+    private static final String[] IMPORT_MIME_TYPES = {
+            "text/csv",
+            "text/comma-separated-values",
+            "text/tab-separated-values",
+            "text/plain"};
+    /**
+     * Time to wait after the last keystroke before searching, in milliseconds
+     */
+    private static final long SEARCH_DELAY_MS = 300;
+    /**
+     * Identifier for the loader of the inventory totals
+     */
+    private static final int STATS_LOADER = 0;
+    /**
+     * Adapter for the list of books
+     */
+    private BookAdapter mAdapter;
+    /**
+     * View shown instead of the list when there are no books
      */
-    BookCursorAdapter mCursorAdapter;
+    private View mEmptyView;
+    /**
+     * Loads the books shown in the list, one page at a time
+     */
+    private CatalogPager mPager;
+    /**
+     * Header showing the totals of the inventory
+     */
+    private TextView mStatsView;
+
+    private final Handler mHandler = new Handler();
+    /**
+     * Text typed in the search box that hasn't been searched for yet
+     */
+    private String mPendingQuery;
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPager.setQuery(mPendingQuery);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,66 +116,108 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        ListView bookListView = (ListView) findViewById(R.id.list);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        View emptyView = findViewById(R.id.empty_view);
-        bookListView.setEmptyView(emptyView);
+        RecyclerView bookListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        bookListView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
 
-        mCursorAdapter = new BookCursorAdapter(this, null);
-        bookListView.setAdapter(mCursorAdapter);
+        mAdapter = new BookAdapter(this);
+        bookListView.setAdapter(mAdapter);
 
-        // Set a clickListener on that View
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Show the empty view whenever the list has no books
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                //Create a new intent to open the {@link FamilyActivity}
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-                Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
-                intent.setData(currentBookUri);
-                //Start the new activity
-                startActivity(intent);
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Books are loaded a page at a time on a background thread
+        mPager = new CatalogPager(this, this);
+
+        // Load the next page of books when the user scrolls near the end of the list
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (lastVisibleItem >= layoutManager.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                    mPager.loadNextPage();
+                }
             }
         });
 
-        // Prepare the loader.  Either re-connect with an existing one,
-        // or start a new one.
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        // Start loading the first page of books
+        mPager.start();
+
+        // The totals are loaded on their own, so the header never waits for the list
+        mStatsView = (TextView) findViewById(R.id.stats_text);
+        getLoaderManager().initLoader(STATS_LOADER, null, mStatsLoaderCallbacks);
     }
 
+    private final LoaderManager.LoaderCallbacks<Cursor> mStatsLoaderCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+                @Override
+                public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                    String[] projection = {
+                            BookEntry.COLUMN_STATS_BOOK_COUNT,
+                            BookEntry.COLUMN_STATS_ITEMS_IN_STOCK,
+                            BookEntry.COLUMN_STATS_STOCK_VALUE,
+                            BookEntry.COLUMN_STATS_LOW_STOCK_COUNT};
+                    return new CursorLoader(CatalogActivity.this, BookEntry.STATS_URI,
+                            projection, null, null, null);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+                    if (cursor == null || !cursor.moveToFirst() || cursor.getLong(0) == 0) {
+                        mStatsView.setVisibility(View.GONE);
+                        return;
+                    }
+                    mStatsView.setText(getString(R.string.catalog_stats, cursor.getLong(0),
+                            cursor.getLong(1), cursor.getLong(2), cursor.getLong(3)));
+                    mStatsView.setVisibility(View.VISIBLE);
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Cursor> loader) {
+                    mStatsView.setVisibility(View.GONE);
+                }
+            };
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_BOOK_TITLE,
-                BookEntry.COLUMN_BOOK_AUTHOR,
-                BookEntry.COLUMN_BOOK_TYPE,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY,
-                BookEntry.COLUMN_BOOK_SUPPLIER,
-                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
-                BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
-                BookEntry.COLUMN_BOOK_IMAGE};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                BookEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    protected void onStop() {
+        super.onStop();
+        // Log how many images were decoded and how well the cache did while the list was shown
+        Log.d(LOG_TAG, "Images: " + ImageLoader.getInstance(this).getStats());
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link BookCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchRunnable);
+        mPager.close();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    public void onCatalogLoaded(List<CatalogItem> books) {
+        // Update {@link BookAdapter} with the books loaded so far
+        mAdapter.submitList(books);
+    }
+
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
@@ -116,9 +225,54 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Files can only be created through the document picker from KitKat on
+        boolean canExport = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        menu.findItem(R.id.action_export_csv).setVisible(canExport);
+        menu.findItem(R.id.action_export_json).setVisible(canExport);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Wait for the user to stop typing, rather than searching on every keystroke
+                search(newText, SEARCH_DELAY_MS);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                // Closing the search box lists all the books again
+                search(null, 0);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the books matching the given text after the given delay. A search that is still
+     * waiting is replaced.
+     */
+    private void search(String query, long delayMillis) {
+        mHandler.removeCallbacks(mSearchRunnable);
+        mPendingQuery = query;
+        mHandler.postDelayed(mSearchRunnable, delayMillis);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -127,6 +281,17 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_insert_data:
                 insertBooks();
                 return true;
+            // Respond to a click on the "Import books" menu option
+            case R.id.action_import:
+                openImportSelector();
+                return true;
+            // Respond to a click on the "Export" menu options
+            case R.id.action_export_csv:
+                openExportSelector(BookExporter.Format.CSV, "books.csv", CREATE_CSV_EXPORT_REQUEST);
+                return true;
+            case R.id.action_export_json:
+                openExportSelector(BookExporter.Format.JSON_LINES, "books.jsonl", CREATE_JSON_EXPORT_REQUEST);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteAllConfirmationDialog();
@@ -135,6 +300,116 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Let the user pick a CSV or TSV file of books to import.
+     */
+    private void openImportSelector() {
+        Intent intent;
+
+        if (Build.VERSION.SDK_INT < 19) {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.setType("text/*");
+        } else {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, IMPORT_MIME_TYPES);
+        }
+
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import)),
+                PICK_IMPORT_REQUEST);
+    }
+
+    /**
+     * Let the user pick the file to export the books to. Only available from KitKat on.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void openExportSelector(BookExporter.Format format, String fileName, int requestCode) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(format.mMimeType);
+        intent.putExtra(Intent.EXTRA_TITLE, fileName);
+        startActivityForResult(intent, requestCode);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent resultData) {
+        if (resultCode != Activity.RESULT_OK || resultData == null || resultData.getData() == null) {
+            super.onActivityResult(requestCode, resultCode, resultData);
+            return;
+        }
+        switch (requestCode) {
+            case PICK_IMPORT_REQUEST:
+                importBooks(resultData.getData());
+                break;
+            case CREATE_CSV_EXPORT_REQUEST:
+                exportBooks(resultData.getData(), BookExporter.Format.CSV);
+                break;
+            case CREATE_JSON_EXPORT_REQUEST:
+                exportBooks(resultData.getData(), BookExporter.Format.JSON_LINES);
+                break;
+            default:
+                super.onActivityResult(requestCode, resultCode, resultData);
+                break;
+        }
+    }
+
+    /**
+     * Export the books to the given file in the background.
+     */
+    private void exportBooks(Uri destination, BookExporter.Format format) {
+        final Context appContext = getApplicationContext();
+        new BookExporter(getContentResolver()).exportInBackground(destination, format,
+                new BookWriter.Callback<BookExporter.Result>() {
+                    @Override
+                    public void onWriteComplete(BookExporter.Result result) {
+                        if (result == null) {
+                            Toast.makeText(appContext, R.string.export_failed, Toast.LENGTH_LONG).show();
+                        } else {
+                            Toast.makeText(appContext, appContext.getString(R.string.export_finished,
+                                    result.mRowCount), Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Import the books of the given file in the background, showing the progress in the app bar.
+     */
+    private void importBooks(Uri source) {
+        final Context appContext = getApplicationContext();
+        setImportProgress(getString(R.string.import_started));
+        BookWriter.getInstance(this).importBooks(source, new BookImporter.Listener() {
+            @Override
+            public void onProgress(int rowsRead, int rowsImported) {
+                setImportProgress(getString(R.string.import_progress, rowsImported));
+            }
+
+            @Override
+            public void onRowError(int line, String message) {
+                Log.w(LOG_TAG, "Import: line " + line + ": " + message);
+            }
+        }, new BookWriter.Callback<BookImporter.Result>() {
+            @Override
+            public void onWriteComplete(BookImporter.Result result) {
+                setImportProgress(null);
+                if (result == null) {
+                    Toast.makeText(appContext, R.string.import_failed, Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(appContext, getString(R.string.import_finished,
+                            result.mRowsImported, result.mRowsFailed), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    private void setImportProgress(String progress) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null && !isFinishing()) {
+            actionBar.setSubtitle(progress);
+        }
+    }
+
     /**
      * Helper method to insert hardcoded books data into the database.
      */
@@ -147,39 +422,43 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     private void insertBook(String title, String author, int type, int price, int quantity, String supplier, String supplierPhone, String supplierEmail, int imageId) {
-        // Create a ContentValues object where column names are the keys,
-        // and book's attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put(BookEntry.COLUMN_BOOK_TITLE, title);
-        values.put(BookEntry.COLUMN_BOOK_AUTHOR, author);
-        values.put(BookEntry.COLUMN_BOOK_TYPE, type);
-        values.put(BookEntry.COLUMN_BOOK_PRICE, price);
-        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, supplier);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, supplierPhone);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, supplierEmail);
+        // Create a Book object with the book's attributes
+        Book book = new Book();
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setType(type);
+        book.setPrice(price);
+        book.setQuantity(quantity);
+        book.setSupplier(supplier);
+        book.setSupplierPhone(supplierPhone);
+        book.setSupplierEmail(supplierEmail);
 
         Uri imageUri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE +
                 "://" + getResources().getResourcePackageName(imageId)
                 + '/' + getResources().getResourceTypeName(imageId) + '/' + getResources().getResourceEntryName(imageId) );
 
-        values.put(BookEntry.COLUMN_BOOK_IMAGE, imageUri.toString());
+        book.setImage(imageUri.toString());
 
-        // Use the {@link BookEntry#CONTENT_URI} to indicate that we want to insert
-        // into the books database table.
-        // Receive the new content URI that will allow us to access database's data in the future.
-        Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
-
-        // Show a toast message depending on whether or not the insertion was successful.
-        if (newUri == null) {
-            // If the new content URI is null, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_insert_book_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_insert_book_successful),
-                    Toast.LENGTH_SHORT).show();
-        }
+        // Insert the book into the books database table. The book is inserted in the
+        // background, and the callback receives the new content URI that allows us to access
+        // its data in the future.
+        final Uri bookImageUri = imageUri;
+        BookWriter.getInstance(this).insert(book, new BookWriter.Callback<Uri>() {
+            @Override
+            public void onWriteComplete(Uri newUri) {
+                // Show a toast message depending on whether or not the insertion was successful.
+                if (newUri == null) {
+                    // If the new content URI is null, then there was an error with insertion.
+                    Toast.makeText(getApplicationContext(), R.string.editor_insert_book_failed,
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    // Otherwise, the insertion was successful and we can display a toast.
+                    Toast.makeText(getApplicationContext(), R.string.editor_insert_book_successful,
+                            Toast.LENGTH_SHORT).show();
+                    ThumbnailGenerator.generate(getApplicationContext(), newUri, bookImageUri);
+                }
+            }
+        });
     }
 
     /**
@@ -193,8 +472,13 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int id) {
                 // User clicked the "Delete" button, so delete the pet.
-                int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
-                Log.v("CatalogActivity", rowsDeleted + " rows deleted from books database");
+                BookWriter.getInstance(CatalogActivity.this).delete(BookEntry.CONTENT_URI, null, null,
+                        new BookWriter.Callback<Integer>() {
+                            @Override
+                            public void onWriteComplete(Integer rowsDeleted) {
+                                Log.v("CatalogActivity", rowsDeleted + " rows deleted from books database");
+                            }
+                        });
             }
         });
         builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -0,0 +1,100 @@
+package com.example.android.inventoryapp;
+
+import android.content.res.Resources;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.Book;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A book as shown in a row of the catalogue. Items are read from the cursor on a background
+ * thread and never change afterwards, so that lists of them can be compared off the main thread.
+ * The text of the row is formatted here too, so binding a row allocates nothing.
+ */
+final class CatalogItem {
+
+    /**
+     * Columns the items are read from, which the provider serves from the covering index of
+     * the catalogue
+     */
+    static final String[] PROJECTION = BookEntry.LIST_COLUMNS;
+
+    final long mId;
+    final String mTitle;
+    final int mPrice;
+    final int mQuantity;
+    /**
+     * URI of the image shown in the row: the small thumbnail, or the image itself until the
+     * thumbnail has been generated
+     */
+    final String mImage;
+    final String mPriceText;
+    final String mQuantityText;
+
+    CatalogItem(long id, String title, int price, int quantity, String image, Resources resources) {
+        mId = id;
+        mTitle = title;
+        mPrice = price;
+        mQuantity = quantity;
+        mImage = image;
+        mPriceText = resources.getString(R.string.list_price, price);
+        mQuantityText = resources.getString(R.string.list_quantity, quantity);
+    }
+
+    /**
+     * Read every row of the given cursor, which holds the columns of {@link #PROJECTION}. The
+     * rows are read into the same book, whose columns are looked up once for the whole cursor.
+     */
+    static List<CatalogItem> readAll(Cursor cursor, Resources resources) {
+        BookMapper mapper = new BookMapper(cursor);
+        Book book = new Book();
+
+        List<CatalogItem> items = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            mapper.read(book);
+            String image = book.getThumbnailSmall();
+            if (image == null) {
+                image = book.getImage();
+            }
+            items.add(new CatalogItem(book.getId(), book.getTitle(), book.getPrice(),
+                    book.getQuantity(), image, resources));
+        }
+        return items;
+    }
+
+    /**
+     * Returns whether the given item shows the same book as this one apart from its quantity.
+     */
+    boolean sameExceptQuantity(CatalogItem other) {
+        return mId == other.mId
+                && mPrice == other.mPrice
+                && equal(mTitle, other.mTitle)
+                && equal(mImage, other.mImage);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CatalogItem)) {
+            return false;
+        }
+        CatalogItem other = (CatalogItem) o;
+        return mQuantity == other.mQuantity && sameExceptQuantity(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mId ^ (mId >>> 32));
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,436 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.TextUtils;
+import android.view.Choreographer;
+
+import com.example.android.inventoryapp.data.BookContract;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the catalogue one page at a time on a background thread, as the list nears its end.
+ * Pages are read with a keyset on the book ID, so every page, including the first one, costs
+ * the same no matter how many books are in the store. When a search is set, the pages hold
+ * the ranked search results instead. Rows are read into {@link CatalogItem}s on the background
+ * thread, so the list never touches a cursor.
+ * <p>
+ * When a single book changes, the provider notifies its URI and only that book is read again
+ * and patched into the loaded pages. The changes notified during a frame are handled together
+ * on the next one, so a burst of sales costs one query. Any other change, or a change during a
+ * search, whose results may be reordered, reloads the pages.
+ */
+class CatalogPager {
+
+    /**
+     * Number of books read by each page query
+     */
+    static final int PAGE_SIZE = 50;
+
+    /**
+     * Callback for the books loaded by a {@link CatalogPager}. Always called on the main thread.
+     */
+    interface Listener {
+        /**
+         * Called with all the books loaded so far, in order. The list can't be modified.
+         */
+        void onCatalogLoaded(List<CatalogItem> books);
+    }
+
+    private final ContentResolver mResolver;
+    private final Resources mResources;
+    private final Listener mListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onBooksChanged(uri);
+        }
+    };
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyChanges();
+        }
+    };
+
+    // The fields below are only used on the main thread.
+    /**
+     * Books loaded so far, in order
+     */
+    private List<CatalogItem> mBooks = Collections.emptyList();
+    /**
+     * Text searched for, or null to list all the books
+     */
+    private String mQuery;
+    /**
+     * ID of the last book loaded, the key of the next page
+     */
+    private long mLastId;
+    private boolean mLoading;
+    private boolean mExhausted;
+    private boolean mClosed;
+    /**
+     * Incremented whenever the loaded pages are thrown away, so that late results are dropped
+     */
+    private int mGeneration;
+    /**
+     * Cancels the query on its way, if any
+     */
+    private CancellationSignal mCancellationSignal;
+    /**
+     * IDs of the books changed since the last frame
+     */
+    private final Set<Long> mChangedIds = new HashSet<>();
+    /**
+     * Whether a change since the last frame requires reloading every book
+     */
+    private boolean mReloadPending;
+    private boolean mFrameScheduled;
+    /**
+     * New books read by a patch while a page was on its way, by ID. The page may have been read
+     * before they were inserted, so they are merged into it when it arrives.
+     */
+    private final Map<Long, CatalogItem> mPendingBooks = new HashMap<>();
+
+    CatalogPager(Context context, Listener listener) {
+        mResolver = context.getContentResolver();
+        mResources = context.getResources();
+        mListener = listener;
+    }
+
+    /**
+     * Load the first page and start watching the books for changes.
+     */
+    void start() {
+        mResolver.registerContentObserver(BookEntry.CONTENT_URI, true, mObserver);
+        loadNextPage();
+    }
+
+    /**
+     * Load the next page, unless one is already on its way or all books have been loaded.
+     */
+    void loadNextPage() {
+        if (mClosed || mLoading || mExhausted) {
+            return;
+        }
+        submit(buildPageUri(mLastId, mBooks.size(), PAGE_SIZE), PAGE_SIZE, false);
+    }
+
+    /**
+     * Show the books matching the given text, or all the books if it is empty. The query on its
+     * way, if any, is cancelled.
+     */
+    void setQuery(String query) {
+        if (query != null && query.trim().isEmpty()) {
+            query = null;
+        }
+        if (mClosed || (query == null ? mQuery == null : query.equals(mQuery))) {
+            return;
+        }
+        mQuery = query;
+        invalidate();
+        mExhausted = false;
+        submit(buildPageUri(0, 0, PAGE_SIZE), PAGE_SIZE, true);
+    }
+
+    /**
+     * Stop watching for changes and drop the queries on their way.
+     */
+    void close() {
+        mClosed = true;
+        invalidate();
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Record a change notified by the provider, to be handled on the next frame.
+     *
+     * @param uri of the book that changed, or of the books if several may have
+     */
+    private void onBooksChanged(Uri uri) {
+        if (mClosed) {
+            return;
+        }
+        long id = parseBookId(uri);
+        if (id == -1 || mQuery != null) {
+            mReloadPending = true;
+        } else {
+            mChangedIds.add(id);
+        }
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    /**
+     * Handle the changes notified since the last frame.
+     */
+    private void applyChanges() {
+        mFrameScheduled = false;
+        if (mReloadPending || mChangedIds.size() > PAGE_SIZE) {
+            mReloadPending = false;
+            mChangedIds.clear();
+            reload();
+        } else if (!mChangedIds.isEmpty()) {
+            Long[] ids = mChangedIds.toArray(new Long[mChangedIds.size()]);
+            mChangedIds.clear();
+            patch(ids);
+        }
+    }
+
+    /**
+     * Read the given books again and patch them into the loaded pages.
+     */
+    private void patch(final Long[] ids) {
+        final int generation = mGeneration;
+        final String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        final String selection = BookEntry._ID + " IN ("
+                + TextUtils.join(", ", Collections.nCopies(ids.length, "?")) + ")";
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<CatalogItem> items = null;
+                Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, CatalogItem.PROJECTION,
+                        selection, selectionArgs, null);
+                if (cursor != null) {
+                    try {
+                        items = CatalogItem.readAll(cursor, mResources);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                final List<CatalogItem> changed = items;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPatchLoaded(generation, ids, changed);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPatchLoaded(int generation, Long[] ids, List<CatalogItem> items) {
+        if (generation != mGeneration || items == null) {
+            // The books have been reloaded since, and the reload reads the changes too
+            return;
+        }
+
+        // Books that are no longer there were deleted
+        Map<Long, CatalogItem> changed = new HashMap<>();
+        for (CatalogItem item : items) {
+            changed.put(item.mId, item);
+        }
+        Set<Long> changedIds = new HashSet<>();
+        Collections.addAll(changedIds, ids);
+        // A pending book changed again is read below, or was deleted
+        mPendingBooks.keySet().removeAll(changedIds);
+
+        List<CatalogItem> books = new ArrayList<>(mBooks.size() + changed.size());
+        for (CatalogItem book : mBooks) {
+            if (!changedIds.contains(book.mId)) {
+                books.add(book);
+                continue;
+            }
+            CatalogItem item = changed.remove(book.mId);
+            if (item != null) {
+                books.add(item);
+            }
+        }
+
+        // The others are new. The books are ordered by ID, so a new book is added if it comes
+        // before the next page, or if there is no next page. A page on its way may have been
+        // read before the book was inserted, so the book is kept until the page arrives.
+        for (CatalogItem item : changed.values()) {
+            if (item.mId < mLastId) {
+                books.add(indexOf(books, item.mId), item);
+            } else if (mLoading) {
+                mPendingBooks.put(item.mId, item);
+            } else if (mExhausted) {
+                books.add(indexOf(books, item.mId), item);
+                mLastId = item.mId;
+            }
+        }
+
+        mBooks = Collections.unmodifiableList(books);
+        mListener.onCatalogLoaded(mBooks);
+    }
+
+    /**
+     * Returns the index at which a book with the given ID goes in the given list, ordered by ID.
+     */
+    private static int indexOf(List<CatalogItem> books, long id) {
+        int low = 0;
+        int high = books.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (books.get(middle).mId < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the ID of the book of the given URI, or -1 if it isn't the URI of a single book.
+     */
+    private static long parseBookId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !BookContract.PATH_BOOKS.equals(segments.get(0))
+                || !TextUtils.isDigitsOnly(segments.get(1))) {
+            return -1;
+        }
+        return Long.parseLong(segments.get(1));
+    }
+
+    /**
+     * Reload every book loaded so far, after the books have changed.
+     */
+    private void reload() {
+        if (mClosed) {
+            return;
+        }
+        invalidate();
+        int limit = Math.max(PAGE_SIZE, mBooks.size());
+        submit(buildPageUri(0, 0, limit), limit, true);
+    }
+
+    /**
+     * Drop the results of the queries on their way and cancel them.
+     */
+    private void invalidate() {
+        mGeneration++;
+        // The pages read next see the pending books too
+        mPendingBooks.clear();
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+        }
+    }
+
+    /**
+     * Return the URI of a page of at most {@code limit} books. The page starts after the book
+     * with the given ID when listing all books, or after {@code offset} results when searching.
+     */
+    private Uri buildPageUri(long afterId, int offset, int limit) {
+        if (mQuery == null) {
+            return BookEntry.buildPageUri(afterId, limit);
+        }
+        // Search results are ranked rather than ordered by ID, so they are paged by offset
+        return BookEntry.buildSearchUri(mQuery).buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    private void submit(final Uri uri, final int limit, final boolean replace) {
+        final int generation = mGeneration;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        mCancellationSignal = cancellationSignal;
+        mLoading = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<CatalogItem> page = null;
+                try {
+                    Cursor cursor = mResolver.query(uri, CatalogItem.PROJECTION, null, null, null,
+                            cancellationSignal);
+                    if (cursor != null) {
+                        try {
+                            page = CatalogItem.readAll(cursor, mResources);
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                } catch (OperationCanceledException e) {
+                    // A newer query replaced this one, its result would be dropped anyway
+                    return;
+                }
+                final List<CatalogItem> books = page;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, books, limit, replace);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int generation, List<CatalogItem> page, int limit, boolean replace) {
+        if (generation != mGeneration) {
+            // The books have been reloaded or the pager closed since this page was requested
+            return;
+        }
+        mLoading = false;
+        mCancellationSignal = null;
+        if (page == null) {
+            return;
+        }
+
+        // Build a new list rather than adding to the old one, which the listener may still use
+        List<CatalogItem> books = new ArrayList<>((replace ? 0 : mBooks.size()) + page.size());
+        if (!replace) {
+            books.addAll(mBooks);
+        }
+        books.addAll(page);
+        mExhausted = page.size() < limit;
+        mLastId = books.isEmpty() ? 0 : books.get(books.size() - 1).mId;
+
+        // Merge the books inserted while the page was on its way that it missed. Those after
+        // the page are read by the next one, unless there is none.
+        for (CatalogItem item : mPendingBooks.values()) {
+            if (item.mId < mLastId || mExhausted) {
+                int index = indexOf(books, item.mId);
+                if (index == books.size() || books.get(index).mId != item.mId) {
+                    books.add(index, item);
+                }
+            }
+        }
+        mPendingBooks.clear();
+        if (mExhausted && !books.isEmpty()) {
+            mLastId = books.get(books.size() - 1).mId;
+        }
+        mBooks = Collections.unmodifiableList(books);
+
+        mListener.onCatalogLoaded(mBooks);
+    }
+}
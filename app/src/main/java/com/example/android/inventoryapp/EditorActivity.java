@@ -5,13 +5,12 @@ import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -34,11 +33,12 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.Book;
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
-
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
+import com.example.android.inventoryapp.data.BookMapper;
+import com.example.android.inventoryapp.data.BookWriter;
+import com.example.android.inventoryapp.image.ImageLoader;
+import com.example.android.inventoryapp.image.ThumbnailGenerator;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -132,10 +132,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @BindView(R.id.button_delete)
     Button mDeleteButton;
     private Uri mImageUri;
+    /**
+     * Medium thumbnail of the book's image as saved, or null if it hasn't been generated yet
+     */
+    private String mThumbnailUri;
+    /**
+     * Whether the user picked another image since the book was loaded
+     */
+    private boolean mImageChanged;
     /**
      * Content URI for the existing book (null if it's a new book)
      */
     private Uri mCurrentBookUri;
+    /**
+     * The existing book as it was last loaded, which the editor's fields are compared with to
+     * only write what changed (null if it's a new book or it hasn't loaded yet)
+     */
+    private Book mLoadedBook;
     /**
      * Type of book. The possible valid values are in the BookContract.java file:
      * {@link BookEntry#TYPE_UNKNOWN}, {@link BookEntry#TYPE_NOVEL}, or
@@ -328,23 +341,24 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return false;
         }
 
-        // Create a ContentValues object where column names are the keys,
-        // and book attributes from the editor are the values.
-        ContentValues values = new ContentValues();
-        values.put(BookEntry.COLUMN_BOOK_TITLE, titleString);
-        values.put(BookEntry.COLUMN_BOOK_AUTHOR, authorString);
-        values.put(BookEntry.COLUMN_BOOK_TYPE, mType);
-        values.put(BookEntry.COLUMN_BOOK_PRICE, priceString);
+        // Create a Book object with the book attributes from the editor. An existing book is
+        // edited from a copy of the book as it was loaded, so that the attributes the editor
+        // doesn't show are kept.
+        Book book = mLoadedBook == null ? new Book() : new Book(mLoadedBook);
+        book.setTitle(titleString);
+        book.setAuthor(authorString);
+        book.setType(mType);
+        book.setPrice(parseInt(priceString));
         // If the quantity is not provided by the user, don't try to parse the string into an
         // integer value. Use 0 by default.
         int quantity = 0;
         if (!TextUtils.isEmpty(quantityString)) {
             quantity = parseInt(quantityString);
         }
-        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, supplierString);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, supplierPhoneString);
-        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, supplierEmailString);
+        book.setQuantity(quantity);
+        book.setSupplier(supplierString);
+        book.setSupplierPhone(supplierPhoneString);
+        book.setSupplierEmail(supplierEmailString);
 
         if (mImageUri == null) {
             mImageUri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE +
@@ -352,44 +366,73 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                     + '/' + getResources().getResourceTypeName(R.drawable.no_image) + '/' + getResources().getResourceEntryName(R.drawable.no_image));
         }
 
-        values.put(BookEntry.COLUMN_BOOK_IMAGE, mImageUri.toString());
+        book.setImage(mImageUri.toString());
+
+        // The write happens in the background and may finish after the editor is closed, so the
+        // callbacks only use the application context
+        final Context appContext = getApplicationContext();
+        final Uri imageUri = mImageUri;
 
         // Determine if this is a new or existing book by checking if mCurrentBookUri is null or not
         if (mCurrentBookUri == null) {
             // This is a NEW book, so insert a new book into the provider,
-            // returning the content URI for the new book.
-            Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_book_successful),
-                        Toast.LENGTH_SHORT).show();
-
-            }
+            // receiving the content URI for the new book.
+            BookWriter.getInstance(this).insert(book, new BookWriter.Callback<Uri>() {
+                @Override
+                public void onWriteComplete(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful.
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText(appContext, R.string.editor_insert_book_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_insert_book_successful,
+                                Toast.LENGTH_SHORT).show();
+                        ThumbnailGenerator.generate(appContext, newUri, imageUri);
+                    }
+                }
+            });
         } else {
             // Otherwise this is an EXISTING book, so update the book with content URI: mCurrentBookUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentBookUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentBookUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_book_failed),
-                        Toast.LENGTH_SHORT).show();
-
+            // and pass in the new ContentValues. mCurrentBookUri already identifies the correct
+            // row in the database that we want to modify.
+            //
+            // Only the attributes that differ from the loaded book are written, so that a change
+            // of the quantity or the price alone takes the provider's single-column update.
+            // If the book hasn't loaded yet, every attribute of the editor is written.
+            ContentValues values;
+            if (mLoadedBook != null) {
+                values = BookMapper.toChangedValues(mLoadedBook, book);
             } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_book_successful),
-                        Toast.LENGTH_SHORT).show();
-
+                values = BookMapper.toValues(book);
+                values.remove(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD);
+            }
+            if (values.size() == 0) {
+                // Nothing changed, so there is nothing to write
+                return true;
             }
+
+            final Uri bookUri = mCurrentBookUri;
+            final boolean imageChanged = mImageChanged;
+            BookWriter.getInstance(this).update(bookUri, values, new BookWriter.Callback<Integer>() {
+                @Override
+                public void onWriteComplete(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected == 0) {
+                        // If no rows were affected, then there was an error with the update.
+                        Toast.makeText(appContext, R.string.editor_update_book_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_update_book_successful,
+                                Toast.LENGTH_SHORT).show();
+                        if (imageChanged) {
+                            ThumbnailGenerator.generate(appContext, bookUri, imageUri);
+                        }
+                    }
+                }
+            });
         }
 
         return true;
@@ -539,7 +582,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 BookEntry.COLUMN_BOOK_SUPPLIER,
                 BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
                 BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
-                BookEntry.COLUMN_BOOK_IMAGE};
+                BookEntry.COLUMN_BOOK_IMAGE,
+                BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM,
+                BookEntry.COLUMN_BOOK_REORDER_THRESHOLD};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -560,35 +605,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of book attributes that we're interested in
-            int titleColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_TITLE);
-            int authorColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHOR);
-            int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
-            int typeColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_TYPE);
-            int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
-            int supplierColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER);
-            int supplierPhoneColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
-            int supplierEmailColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL);
-            int imageColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_IMAGE);
-
-            // Extract out the value from the Cursor for the given column index
-            String title = cursor.getString(titleColumnIndex);
-            String author = cursor.getString(authorColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-            int type = cursor.getInt(typeColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplier = cursor.getString(supplierColumnIndex);
-            String supplierTelephone = cursor.getString(supplierPhoneColumnIndex);
-            String supplierEmail = cursor.getString(supplierEmailColumnIndex);
-            String image = cursor.getString(imageColumnIndex);
+            // Read the book attributes from the row
+            Book book = new BookMapper(cursor).read(new Book());
+            mLoadedBook = book;
 
             // Update the views on the screen with the values from the database
-            mTitleEditText.setText(title);
-            mAuthorEditText.setText(author);
+            mTitleEditText.setText(book.getTitle());
+            mAuthorEditText.setText(book.getAuthor());
             // Type is a dropdown spinner, so map the constant value from the database
             // into one of the dropdown options (0 is Unknown, 1 is Novel, 2 is Technical).
             // Then call setSelection() so that option is displayed on screen as the current selection.
-            switch (type) {
+            switch (book.getType()) {
                 case BookEntry.TYPE_NOVEL:
                     mTypeSpinner.setSelection(1);
                     break;
@@ -599,13 +626,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                     mTypeSpinner.setSelection(0);
                     break;
             }
-            mPriceEditText.setText(Integer.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
-            mSupplierEditText.setText(supplier);
-            mSupplierPhoneEditText.setText(supplierTelephone);
-            mSupplierEmailEditText.setText(supplierEmail);
-            mImageUri = Uri.parse(image);
-            mImageView.setImageURI(mImageUri);
+            mPriceEditText.setText(Integer.toString(book.getPrice()));
+            mQuantityEditText.setText(Integer.toString(book.getQuantity()));
+            mSupplierEditText.setText(book.getSupplier());
+            mSupplierPhoneEditText.setText(book.getSupplierPhone());
+            mSupplierEmailEditText.setText(book.getSupplierEmail());
+            mThumbnailUri = book.getThumbnailMedium();
+            if (!mImageChanged) {
+                mImageUri = Uri.parse(book.getImage());
+            }
+            loadImage();
 
             if (TextUtils.isEmpty(mSupplierPhoneEditText.getText()))
                 mSupplierPhoneButton.setVisibility(View.GONE);
@@ -621,6 +651,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mQuantityEditText.setText("");
         mTypeSpinner.setSelection(0); // Select "Unknown" type
         mImageUri = null;
+        mThumbnailUri = null;
+        mImageChanged = false;
+        mLoadedBook = null;
         mSupplierEditText.setText("");
         mSupplierPhoneEditText.setText("");
         mSupplierEmailEditText.setText("");
@@ -690,21 +723,24 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deleteBook() {
         // Only perform the delete if this is an existing book.
         if (mCurrentBookUri != null) {
-            // Call the ContentResolver to delete the book at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentBookUri
-            // content URI already identifies the book that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentBookUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Delete the book at the given content URI in the background. No selection is
+            // needed because the mCurrentBookUri content URI already identifies the book.
+            final Context appContext = getApplicationContext();
+            BookWriter.getInstance(this).delete(mCurrentBookUri, null, null, new BookWriter.Callback<Integer>() {
+                @Override
+                public void onWriteComplete(Integer rowsDeleted) {
+                    // Show a toast message depending on whether or not the delete was successful.
+                    if (rowsDeleted == 0) {
+                        // If no rows were deleted, then there was an error with the delete.
+                        Toast.makeText(appContext, R.string.editor_delete_book_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the delete was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_delete_book_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
 
         // Close the activity
@@ -738,61 +774,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
             if (resultData != null) {
                 mImageUri = resultData.getData();
+                mImageChanged = true;
                 Log.i(LOG_TAG, "Uri: " + mImageUri.toString());
 
                 //mImageView.setText(mUri.toString());
-                mImageView.setImageBitmap(getBitmapFromUri(mImageUri));
+                loadImage();
             }
         }
     }
 
-    public Bitmap getBitmapFromUri(Uri uri) {
-
-        if (uri == null || uri.toString().isEmpty())
-            return null;
-
-        // Get the dimensions of the View
-        int targetW = mImageView.getWidth();
-        int targetH = mImageView.getHeight();
-
-        InputStream input = null;
-        try {
-            input = this.getContentResolver().openInputStream(uri);
-
-            // Get the dimensions of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-
-            int photoW = bmOptions.outWidth;
-            int photoH = bmOptions.outHeight;
-
-            // Determine how much to scale down the image
-            int scaleFactor = Math.min(photoW / targetW, photoH / targetH);
-
-            // Decode the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            bmOptions.inPurgeable = true;
-
-            input = this.getContentResolver().openInputStream(uri);
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-            return bitmap;
-
-        } catch (FileNotFoundException fne) {
-            Log.e(LOG_TAG, "Failed to load image.", fne);
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Failed to load image.", e);
-            return null;
-        } finally {
-            try {
-                input.close();
-            } catch (IOException ioe) {
-
-            }
+    /**
+     * Show the book's image, decoded off the main thread at the size of the image view. The
+     * saved image is shown from its thumbnail when there is one.
+     */
+    private void loadImage() {
+        String image = mImageUri == null ? null : mImageUri.toString();
+        if (!mImageChanged && mThumbnailUri != null) {
+            image = mThumbnailUri;
         }
+        ImageLoader.getInstance(this).load(image, mImageView,
+                getResources().getDimensionPixelSize(R.dimen.image_width));
     }
 }
\ No newline at end of file
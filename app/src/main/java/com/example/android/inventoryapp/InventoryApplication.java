@@ -0,0 +1,32 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * Application of the Bookstore Inventory Tracker. Debug builds report any disk access made
+ * on the main thread, which should all go through the background loaders and writers.
+ */
+public class InventoryApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .penaltyFlashScreen()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedSqlLiteObjects()
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
+        super.onCreate();
+
+        // Keep the drafts of the reorders up to date in the background
+        ReorderScheduler.schedule(this);
+    }
+}
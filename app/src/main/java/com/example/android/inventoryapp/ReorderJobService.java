@@ -0,0 +1,32 @@
+package com.example.android.inventoryapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+/**
+ * Job that scans the changes to the books for the drafts of the reorders, scheduled by
+ * {@link ReorderScheduler}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ReorderJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        ReorderScheduler.scanInBackground(this, new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // A scan commits in a single transaction, and the next one starts from the watermark
+        // of the last one that did, so there is nothing to retry
+        return false;
+    }
+}
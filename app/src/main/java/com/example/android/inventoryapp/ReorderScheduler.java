@@ -0,0 +1,107 @@
+package com.example.android.inventoryapp;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract.ReorderEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the drafts of the reorders up to date in the background, see {@link ReorderEntry}.
+ * Each scan only reads the changes made since the previous one: the watermark returned by a
+ * scan is kept in the preferences and passed to the next.
+ * <p>
+ * Scans are run by {@link ReorderJobService}, which needs Lollipop. On older devices a scan runs
+ * each time the app starts instead.
+ */
+final class ReorderScheduler {
+
+    public static final String LOG_TAG = ReorderScheduler.class.getSimpleName();
+
+    /**
+     * ID of the job, unique in the app
+     */
+    private static final int JOB_ID = 1;
+    /**
+     * Interval between two scans, in milliseconds
+     */
+    private static final long INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Name of the preferences holding the watermark
+     */
+    private static final String PREFERENCES_NAME = "reorders";
+    private static final String PREFERENCE_WATERMARK = "watermark";
+
+    /**
+     * Runs the scans one at a time, off the main thread
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private ReorderScheduler() {
+    }
+
+    /**
+     * Schedule the scans, unless they already are.
+     */
+    static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            scanInBackground(context, null);
+            return;
+        }
+
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, ReorderJobService.class))
+                .setPeriodic(INTERVAL_MILLIS)
+                .build());
+    }
+
+    /**
+     * Scan the changes since the last scan on a background thread, then run the given callback
+     * on that thread, if any.
+     */
+    static void scanInBackground(Context context, final Runnable callback) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan(appContext);
+                if (callback != null) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Scan the changes since the last scan and save the new watermark.
+     */
+    private static void scan(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        long watermark = preferences.getLong(PREFERENCE_WATERMARK, 0);
+        try {
+            Bundle result = context.getContentResolver().call(ReorderEntry.CONTENT_URI,
+                    ReorderEntry.METHOD_SCAN, String.valueOf(watermark), null);
+            if (result != null) {
+                preferences.edit()
+                        .putLong(PREFERENCE_WATERMARK, result.getLong(ReorderEntry.EXTRA_WATERMARK, watermark))
+                        .apply();
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to scan the reorders", e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.inventoryapp.data;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * A book as stored by the {@link BookProvider}, with its supplier. Books are read from a cursor
+ * by a {@link BookMapper}, which can fill the same instance for every row, and written back with
+ * {@link BookMapper#toValues(Book)}.
+ * <p>
+ * A new book has no ID, no supplier ID and no thumbnails, which the provider sets.
+ */
+public final class Book {
+
+    private long mId = -1;
+    private String mTitle;
+    private String mAuthor;
+    private int mType = BookEntry.TYPE_UNKNOWN;
+    private int mPrice;
+    private int mQuantity;
+    private long mSupplierId = -1;
+    private String mSupplier;
+    private String mSupplierPhone;
+    private String mSupplierEmail;
+    private String mImage;
+    private String mThumbnailSmall;
+    private String mThumbnailMedium;
+    private int mReorderThreshold = BookEntry.LOW_STOCK_QUANTITY;
+
+    /**
+     * Create a new book, with no attribute set.
+     */
+    public Book() {
+    }
+
+    /**
+     * Create a copy of the given book, to be edited without changing it.
+     */
+    public Book(Book book) {
+        mId = book.mId;
+        mTitle = book.mTitle;
+        mAuthor = book.mAuthor;
+        mType = book.mType;
+        mPrice = book.mPrice;
+        mQuantity = book.mQuantity;
+        mSupplierId = book.mSupplierId;
+        mSupplier = book.mSupplier;
+        mSupplierPhone = book.mSupplierPhone;
+        mSupplierEmail = book.mSupplierEmail;
+        mImage = book.mImage;
+        mThumbnailSmall = book.mThumbnailSmall;
+        mThumbnailMedium = book.mThumbnailMedium;
+        mReorderThreshold = book.mReorderThreshold;
+    }
+
+    /**
+     * Returns the ID of the book, or -1 if it hasn't been inserted.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    public void setId(long id) {
+        mId = id;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public void setTitle(String title) {
+        mTitle = title;
+    }
+
+    public String getAuthor() {
+        return mAuthor;
+    }
+
+    public void setAuthor(String author) {
+        mAuthor = author;
+    }
+
+    /**
+     * Returns the type of the book, one of {@link BookEntry#TYPE_UNKNOWN},
+     * {@link BookEntry#TYPE_NOVEL} or {@link BookEntry#TYPE_TECHNICAL}.
+     */
+    public int getType() {
+        return mType;
+    }
+
+    public void setType(int type) {
+        mType = type;
+    }
+
+    public int getPrice() {
+        return mPrice;
+    }
+
+    public void setPrice(int price) {
+        mPrice = price;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public void setQuantity(int quantity) {
+        mQuantity = quantity;
+    }
+
+    /**
+     * Returns the ID of the supplier of the book, or -1 if the supplier is only given by its
+     * name, phone and email.
+     */
+    public long getSupplierId() {
+        return mSupplierId;
+    }
+
+    public void setSupplierId(long supplierId) {
+        mSupplierId = supplierId;
+    }
+
+    public String getSupplier() {
+        return mSupplier;
+    }
+
+    public void setSupplier(String supplier) {
+        mSupplier = supplier;
+    }
+
+    public String getSupplierPhone() {
+        return mSupplierPhone;
+    }
+
+    public void setSupplierPhone(String supplierPhone) {
+        mSupplierPhone = supplierPhone;
+    }
+
+    public String getSupplierEmail() {
+        return mSupplierEmail;
+    }
+
+    public void setSupplierEmail(String supplierEmail) {
+        mSupplierEmail = supplierEmail;
+    }
+
+    /**
+     * Returns the URI of the image of the book.
+     */
+    public String getImage() {
+        return mImage;
+    }
+
+    public void setImage(String image) {
+        mImage = image;
+    }
+
+    /**
+     * Returns the URI of the small thumbnail of the image, or null if it hasn't been generated.
+     */
+    public String getThumbnailSmall() {
+        return mThumbnailSmall;
+    }
+
+    public void setThumbnailSmall(String thumbnailSmall) {
+        mThumbnailSmall = thumbnailSmall;
+    }
+
+    /**
+     * Returns the URI of the medium thumbnail of the image, or null if it hasn't been generated.
+     */
+    public String getThumbnailMedium() {
+        return mThumbnailMedium;
+    }
+
+    public void setThumbnailMedium(String thumbnailMedium) {
+        mThumbnailMedium = thumbnailMedium;
+    }
+
+    /**
+     * Returns the quantity at or below which the book is reordered.
+     */
+    public int getReorderThreshold() {
+        return mReorderThreshold;
+    }
+
+    public void setReorderThreshold(int reorderThreshold) {
+        mReorderThreshold = reorderThreshold;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of single books in the process of the {@link BookProvider}, so that opening a book in
+ * the editor, usually one that was just shown in the catalogue, doesn't go back to SQLite. Each
+ * book is kept as an immutable record of all of its {@link #COLUMNS}, joined with its supplier,
+ * so that any projection of them can be served from it. The least recently used books are
+ * evicted once the records take more than {@link #MAX_BYTES}.
+ * <p>
+ * The provider removes a book once a write of it has committed, and every book once a write
+ * that may change several of them has. Missing books aren't cached, so an insert has nothing
+ * to remove. A book read while a write runs may be older than the write, so it's only added if
+ * no book was removed since the read started.
+ */
+class BookCache {
+
+    /**
+     * Columns of a cached book, those of {@link BookDbHelper#BOOKS_VIEW_NAME}
+     */
+    static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_TITLE,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_TYPE,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_ID,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+            BookEntry.COLUMN_BOOK_IMAGE,
+            BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+            BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM,
+            BookEntry.COLUMN_BOOK_IMAGE_HASH,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD};
+
+    /**
+     * Estimated size of the cached books, in bytes, above which the least recently used ones
+     * are evicted: about a thousand books with their image URIs
+     */
+    private static final int MAX_BYTES = 512 * 1024;
+
+    /**
+     * A book as it was read from the database
+     */
+    private static final class CachedBook {
+        private final Object[] mValues = new Object[COLUMNS.length];
+        private final int mSize;
+
+        /**
+         * Read the book at the current row of a cursor of {@link #COLUMNS}, keeping the type
+         * SQLite returned for each column.
+         */
+        CachedBook(Cursor cursor) {
+            // The array and its references, then the values
+            int size = 16 + 4 * COLUMNS.length;
+            for (int i = 0; i < COLUMNS.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        mValues[i] = cursor.getLong(i);
+                        size += 16;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        mValues[i] = cursor.getDouble(i);
+                        size += 16;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String string = cursor.getString(i);
+                        mValues[i] = string;
+                        size += 40 + 2 * string.length();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        mValues[i] = blob;
+                        size += 16 + blob.length;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            mSize = size;
+        }
+
+        /**
+         * Returns a cursor of the given columns of the book.
+         */
+        Cursor toCursor(String[] projection) {
+            MatrixCursor cursor = new MatrixCursor(projection, 1);
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : projection) {
+                row.add(mValues[indexOf(column)]);
+            }
+            return cursor;
+        }
+    }
+
+    // Guarded by this. The books are in the order of their last use, the least recent first.
+    private final LinkedHashMap<Long, CachedBook> mBooks = new LinkedHashMap<>(16, 0.75f, true);
+    private int mBytes;
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mInvalidations;
+
+    /**
+     * Returns whether the given projection of a single book can be served from the cache.
+     */
+    static boolean isCached(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cursor of the given columns of the book with the given ID, all of them if null,
+     * which has no row if there is no such book. The book is read from the database if it
+     * isn't cached. The projection must be one that {@link #isCached(String[])}.
+     */
+    Cursor query(SQLiteDatabase database, long id, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+
+        CachedBook book = get(id);
+        if (book == null) {
+            long generation = getGeneration();
+            Cursor cursor = database.query(BookDbHelper.BOOKS_VIEW_NAME, COLUMNS,
+                    BookEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return new MatrixCursor(projection, 0);
+                }
+                book = new CachedBook(cursor);
+            } finally {
+                cursor.close();
+            }
+            put(id, book, generation);
+        }
+        return book.toCursor(projection);
+    }
+
+    /**
+     * Remove the book with the given ID, after a write of it has committed.
+     */
+    synchronized void remove(long id) {
+        mGeneration++;
+        CachedBook book = mBooks.remove(id);
+        if (book != null) {
+            mBytes -= book.mSize;
+            mInvalidations++;
+        }
+    }
+
+    /**
+     * Remove every book, after a write that may have changed several of them has committed.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mInvalidations += mBooks.size();
+        mBooks.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Print the size of the cache and how it has been used, for dumpsys.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.printf("Book cache: %d books, %d of %d KB, %d hits, %d misses, %d evictions,"
+                        + " %d invalidations%n", mBooks.size(), mBytes / 1024, MAX_BYTES / 1024,
+                mHits, mMisses, mEvictions, mInvalidations);
+    }
+
+    private synchronized CachedBook get(long id) {
+        CachedBook book = mBooks.get(id);
+        if (book == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return book;
+    }
+
+    /**
+     * Returns the number of removals so far, to tell whether a book read after it may be stale.
+     */
+    private synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Add a book read after the given generation, unless a book has been removed since, then
+     * evict the least recently used books while the cache is too large.
+     */
+    private synchronized void put(long id, CachedBook book, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        CachedBook oldBook = mBooks.put(id, book);
+        if (oldBook != null) {
+            mBytes -= oldBook.mSize;
+        }
+        mBytes += book.mSize;
+
+        Iterator<CachedBook> books = mBooks.values().iterator();
+        while (mBytes > MAX_BYTES && books.hasNext()) {
+            mBytes -= books.next().mSize;
+            books.remove();
+            mEvictions++;
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
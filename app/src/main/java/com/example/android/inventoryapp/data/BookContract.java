@@ -28,6 +28,63 @@ public final class BookContract {
      * as the ContentProvider hasn't been given any information on what to do with "staff".
      */
     public static final String PATH_BOOKS = "books";
+    /**
+     * Path appended to {@link BookEntry#CONTENT_URI}, followed by the text to search for.
+     * For instance, content://com.example.android.inventoryapp/books/search/orwell returns the
+     * books whose title, author or supplier has a word starting with "orwell".
+     */
+    public static final String PATH_SEARCH = "search";
+    /**
+     * Path appended to {@link BookEntry#CONTENT_URI} for the totals of the inventory.
+     * For instance, content://com.example.android.inventoryapp/books/stats returns a single row
+     * with the columns of {@link BookEntry#STATS_COLUMNS}.
+     */
+    public static final String PATH_STATS = "stats";
+    /**
+     * Path for the suppliers, see {@link SupplierEntry}. Appended to the URI of a supplier,
+     * {@link #PATH_BOOKS} gives the books of the supplier, for instance
+     * content://com.example.android.inventoryapp/suppliers/3/books.
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+    /**
+     * Path for the ledger of sales, see {@link SaleEntry}.
+     */
+    public static final String PATH_SALES = "sales";
+    /**
+     * Path appended to {@link SaleEntry#CONTENT_URI} for the number of copies sold of each book.
+     * For instance, content://com.example.android.inventoryapp/sales/summary?days=7 returns the
+     * copies sold of each book over the last 7 days.
+     */
+    public static final String PATH_SUMMARY = "summary";
+    /**
+     * Path for the drafts of reorders to the suppliers, see {@link ReorderEntry}.
+     */
+    public static final String PATH_REORDERS = "reorders";
+    /**
+     * Path for the metrics of the provider, see {@link MetricsEntry}.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Query parameter for the maximum number of books returned by a query on
+     * {@link BookEntry#CONTENT_URI}.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    /**
+     * Query parameter for the number of books to skip before the first one returned.
+     */
+    public static final String QUERY_PARAMETER_OFFSET = "offset";
+    /**
+     * Query parameter that only returns books with an ID greater than the given one, ordered by
+     * ID. Unlike {@link #QUERY_PARAMETER_OFFSET} the cost of the query doesn't grow with the
+     * position of the page.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after";
+    /**
+     * Query parameter for the number of days, today included, covered by
+     * {@link SaleEntry#SUMMARY_URI}. Without it, every sale is counted.
+     */
+    public static final String QUERY_PARAMETER_DAYS = "days";
 
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
@@ -76,7 +133,7 @@ public final class BookContract {
          * Type of the book.
          * The only possible values are {@link #TYPE_UNKNOWN}, {@link #TYPE_NOVEL},
          * {@link #TYPE_TECHNICAL}.
-         * Type: TEXT
+         * Type: INTEGER
          */
         public static final String COLUMN_BOOK_TYPE = "type";
         /**
@@ -90,17 +147,27 @@ public final class BookContract {
          */
         public static final String COLUMN_BOOK_QUANTITY = "quantity";
         /**
-         * Book's supplier.
+         * ID of the book's supplier, see {@link SupplierEntry}. When a book is written with
+         * the supplier's name, phone and email instead, the provider looks the supplier up and
+         * adds it if needed.
          * Type: INTEGER
          */
+        public static final String COLUMN_BOOK_SUPPLIER_ID = "supplier_id";
+        /**
+         * Book's supplier. Stored with the supplier, in
+         * {@link SupplierEntry#COLUMN_SUPPLIER_NAME}.
+         * Type: String
+         */
         public static final String COLUMN_BOOK_SUPPLIER = "supplier";
         /**
-         * Supplier phone number.
+         * Supplier phone number. Stored with the supplier, in
+         * {@link SupplierEntry#COLUMN_SUPPLIER_PHONE}.
          * Type: String
          */
         public static final String COLUMN_BOOK_SUPPLIER_PHONE = "telephone_supplier";
         /**
-         * Supplier's email.
+         * Supplier's email. Stored with the supplier, in
+         * {@link SupplierEntry#COLUMN_SUPPLIER_EMAIL}.
          * Type: String
          */
         public static final String COLUMN_BOOK_SUPPLIER_EMAIL = "email_supplier";
@@ -109,6 +176,42 @@ public final class BookContract {
          * Type: String
          */
         public final static String COLUMN_BOOK_IMAGE = "image";
+        /**
+         * URI of a small thumbnail of the book's image, in the app's private storage, or null
+         * if it hasn't been generated yet.
+         * Type: String
+         */
+        public final static String COLUMN_BOOK_THUMBNAIL_SMALL = "thumbnail_small";
+        /**
+         * URI of a medium-sized thumbnail of the book's image, or null if it hasn't been
+         * generated yet.
+         * Type: String
+         */
+        public final static String COLUMN_BOOK_THUMBNAIL_MEDIUM = "thumbnail_medium";
+        /**
+         * Hash of the content of the book's image the thumbnails were generated from.
+         * Type: String
+         */
+        public final static String COLUMN_BOOK_IMAGE_HASH = "image_hash";
+        /**
+         * Quantity at or below which the book is reordered from its supplier, see
+         * {@link ReorderEntry}. Defaults to {@link #LOW_STOCK_QUANTITY}.
+         * Type: INTEGER
+         */
+        public final static String COLUMN_BOOK_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Columns of a book shown in a row of the catalogue. A query of the books with this
+         * projection, in the order of their IDs, is read from a covering index without touching
+         * the books table.
+         */
+        public static final String[] LIST_COLUMNS = {
+                _ID,
+                COLUMN_BOOK_TITLE,
+                COLUMN_BOOK_PRICE,
+                COLUMN_BOOK_QUANTITY,
+                COLUMN_BOOK_IMAGE,
+                COLUMN_BOOK_THUMBNAIL_SMALL};
 
         /**
          * Possible values for the type of the book.
@@ -117,6 +220,100 @@ public final class BookContract {
         public static final int TYPE_NOVEL = 1;
         public static final int TYPE_TECHNICAL = 2;
 
+        /**
+         * Name of the provider method that sells copies of a book, see
+         * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)}.
+         * The argument is the ID of the book and the extras may hold {@link #EXTRA_QUANTITY}.
+         * The stock is only reduced if there are enough copies left.
+         */
+        public static final String METHOD_SELL = "sell";
+        /**
+         * Number of copies to sell with {@link #METHOD_SELL}. Defaults to 1.
+         * Type: int
+         */
+        public static final String EXTRA_QUANTITY = "quantity";
+        /**
+         * Result of {@link #METHOD_SELL}: the quantity in stock after the sale, or -1 if there
+         * were not enough copies and nothing was sold.
+         * Type: int
+         */
+        public static final String EXTRA_STOCK = "stock";
+
+        /**
+         * The content URI for the totals of the inventory.
+         */
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #STATS_URI}.
+         */
+        public static final String CONTENT_STATS_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Number of books in the inventory, in {@link #STATS_URI}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STATS_BOOK_COUNT = "book_count";
+        /**
+         * Number of copies in stock, all books together, in {@link #STATS_URI}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STATS_ITEMS_IN_STOCK = "items_in_stock";
+        /**
+         * Value of the stock, the sum of price * quantity of every book, in {@link #STATS_URI}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STATS_STOCK_VALUE = "stock_value";
+        /**
+         * Number of books with {@link #LOW_STOCK_QUANTITY} copies or fewer, in
+         * {@link #STATS_URI}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STATS_LOW_STOCK_COUNT = "low_stock_count";
+        /**
+         * Number of books of each type, in {@link #STATS_URI}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STATS_UNKNOWN_COUNT = "unknown_count";
+        public static final String COLUMN_STATS_NOVEL_COUNT = "novel_count";
+        public static final String COLUMN_STATS_TECHNICAL_COUNT = "technical_count";
+
+        /**
+         * All the columns of {@link #STATS_URI}, the default projection.
+         */
+        public static final String[] STATS_COLUMNS = {
+                COLUMN_STATS_BOOK_COUNT,
+                COLUMN_STATS_ITEMS_IN_STOCK,
+                COLUMN_STATS_STOCK_VALUE,
+                COLUMN_STATS_LOW_STOCK_COUNT,
+                COLUMN_STATS_UNKNOWN_COUNT,
+                COLUMN_STATS_NOVEL_COUNT,
+                COLUMN_STATS_TECHNICAL_COUNT};
+
+        /**
+         * A book is low on stock when it has this many copies or fewer.
+         */
+        public static final int LOW_STOCK_QUANTITY = 2;
+
+        /**
+         * Returns the content URI for a page of at most {@code limit} books, starting after the
+         * book with the given ID. Use 0 for the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that searches the books for the given text.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
         /**
          * Returns whether or not the given type is {@link #TYPE_UNKNOWN}, {@link #TYPE_NOVEL},
          * or {@link #TYPE_TECHNICAL}.
@@ -128,4 +325,279 @@ public final class BookContract {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Inner class that defines constant values for the suppliers database table.
+     * Each entry in the table represents a supplier, shared by all the books it supplies, so
+     * that a change to the supplier is a single write.
+     */
+    public static class SupplierEntry implements BaseColumns {
+        /**
+         * The content URI to access the supplier data in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * Name of database table for suppliers
+         */
+        public static final String TABLE_NAME = "suppliers";
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the supplier.
+         * Type: TEXT
+         */
+        public static final String COLUMN_SUPPLIER_NAME = "name";
+        /**
+         * Phone number of the supplier.
+         * Type: TEXT
+         */
+        public static final String COLUMN_SUPPLIER_PHONE = "phone";
+        /**
+         * Email of the supplier, where orders are sent. Required.
+         * Type: TEXT
+         */
+        public static final String COLUMN_SUPPLIER_EMAIL = "email";
+
+        /**
+         * Returns the content URI for the books of the given supplier.
+         */
+        public static Uri buildBooksUri(long supplierId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(supplierId))
+                    .appendPath(PATH_BOOKS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the sales ledger. Each entry records a sale
+     * of copies of a book. Entries are only ever added, by {@link BookEntry#METHOD_SELL}, and
+     * can't be changed or deleted.
+     */
+    public static class SaleEntry implements BaseColumns {
+        /**
+         * The content URI to access the sales in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /**
+         * The content URI for the copies sold of each book. Each row has the {@link #_ID} and
+         * title of a book with at least one sale, and {@link #COLUMN_SUMMARY_UNITS_SOLD}.
+         */
+        public static final Uri SUMMARY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /**
+         * The MIME type of the {@link #SUMMARY_URI}.
+         */
+        public static final String CONTENT_SUMMARY_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES
+                        + "." + PATH_SUMMARY;
+
+        /**
+         * Name of database table for sales
+         */
+        public static final String TABLE_NAME = "sales";
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the book sold.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SALE_BOOK_ID = "book_id";
+        /**
+         * Number of copies sold.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SALE_QUANTITY = "quantity";
+        /**
+         * Time of the sale, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SALE_TIME = "sold_at";
+
+        /**
+         * Number of copies of the book sold, in {@link #SUMMARY_URI}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SUMMARY_UNITS_SOLD = "units_sold";
+
+        /**
+         * Length of a day of sales, in milliseconds. Days start at midnight UTC.
+         */
+        public static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+        /**
+         * Returns the content URI for the copies sold of each book over the given number of
+         * days, today included.
+         */
+        public static Uri buildSummaryUri(int days) {
+            return SUMMARY_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_DAYS, String.valueOf(days))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the drafts of reorders. There is at most one
+     * draft for each supplier, which lists every book of the supplier whose quantity is at or
+     * below its {@link BookEntry#COLUMN_BOOK_REORDER_THRESHOLD}. Drafts are kept up to date in
+     * the background by {@link #METHOD_SCAN}. Clients read them and delete those they have sent.
+     */
+    public static class ReorderEntry implements BaseColumns {
+        /**
+         * The content URI to access the drafts in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_REORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of drafts.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REORDERS;
+
+        /**
+         * Name of database table for the drafts
+         */
+        public static final String TABLE_NAME = "reorder_drafts";
+        /**
+         * ID of the draft, which is the ID of its supplier.
+         */
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * Books to order, one per line, each as the number of copies followed by the title.
+         * A book is ordered enough copies to bring its stock to twice its threshold, and at
+         * least one.
+         * Type: TEXT
+         */
+        public static final String COLUMN_REORDER_LINES = "lines";
+        /**
+         * Total number of copies to order.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_REORDER_COPIES = "copies";
+        /**
+         * Time the draft was last changed, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_REORDER_TIME = "drafted_at";
+        /**
+         * Name and email of the supplier, joined from {@link SupplierEntry} by queries.
+         * Type: TEXT
+         */
+        public static final String COLUMN_REORDER_SUPPLIER = "supplier";
+        public static final String COLUMN_REORDER_SUPPLIER_EMAIL = "email_supplier";
+
+        /**
+         * Name of the provider method that brings the drafts up to date with the books that
+         * changed since the last scan, see
+         * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)}.
+         * The argument is the watermark returned by the last scan, or null for the first one.
+         * The result holds the watermark to pass to the next scan in {@link #EXTRA_WATERMARK}.
+         */
+        public static final String METHOD_SCAN = "scan_reorders";
+        /**
+         * Result of {@link #METHOD_SCAN}: the watermark of the changes it has scanned.
+         * Type: long
+         */
+        public static final String EXTRA_WATERMARK = "watermark";
+    }
+
+    /**
+     * Inner class that defines constant values for the metrics of the provider. Each row holds
+     * the metrics of an operation on a URI pattern, such as "query books/#", since the provider
+     * was created. Metrics are on by default in debug builds only, see
+     * {@link #METHOD_SET_ENABLED}. They can also be printed with
+     * {@code adb shell dumpsys activity provider BookProvider}, along with the slowest
+     * operations and their selection.
+     */
+    public static class MetricsEntry {
+        /**
+         * The content URI to access the metrics in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * Operation and URI pattern.
+         * Type: TEXT
+         */
+        public static final String COLUMN_NAME = "name";
+        /**
+         * Number of operations.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_COUNT = "count";
+        /**
+         * Number of rows returned, inserted, updated or deleted by the operations.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROWS = "rows";
+        /**
+         * Latencies of the operations, in nanoseconds: the mean, percentiles within 12.5%, and
+         * the maximum.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MEAN_NANOS = "mean_ns";
+        public static final String COLUMN_P50_NANOS = "p50_ns";
+        public static final String COLUMN_P90_NANOS = "p90_ns";
+        public static final String COLUMN_P99_NANOS = "p99_ns";
+        public static final String COLUMN_MAX_NANOS = "max_ns";
+        /**
+         * Number of rows the queries fitted in their first cursor window.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_WINDOW_ROWS = "window_rows";
+        /**
+         * Number of queries whose rows didn't fit in their first cursor window, so that they
+         * were run again from a later row when read that far.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_WINDOW_OVERFLOWS = "window_overflows";
+
+        /**
+         * All the columns of {@link #CONTENT_URI}, the default projection.
+         */
+        public static final String[] COLUMNS = {
+                COLUMN_NAME,
+                COLUMN_COUNT,
+                COLUMN_ROWS,
+                COLUMN_MEAN_NANOS,
+                COLUMN_P50_NANOS,
+                COLUMN_P90_NANOS,
+                COLUMN_P99_NANOS,
+                COLUMN_MAX_NANOS,
+                COLUMN_WINDOW_ROWS,
+                COLUMN_WINDOW_OVERFLOWS};
+
+        /**
+         * Name of the provider method that turns the metrics on, with "true" as the argument,
+         * or off, with "false". Metrics already recorded are kept.
+         */
+        public static final String METHOD_SET_ENABLED = "set_metrics_enabled";
+    }
+}
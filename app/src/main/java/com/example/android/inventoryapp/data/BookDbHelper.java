@@ -1,10 +1,16 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
 
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.ReorderEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
 
 /**
  * Database helper for Bookstore Inventory Tracker app. Manages database creation and version management.
@@ -20,7 +26,261 @@ public class BookDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
+
+    // Connection settings, applied by onConfigure() whenever the database is opened.
+    /**
+     * Whether to use write-ahead logging. With it, the catalogue can be read while a sale or an
+     * import is being written, instead of waiting for the writer to commit.
+     */
+    private static final boolean WRITE_AHEAD_LOGGING = true;
+    /**
+     * Synchronous mode of the writer. In WAL mode, NORMAL only syncs at checkpoints: a power
+     * loss may roll back the last commits but can't corrupt the database.
+     */
+    private static final String SYNCHRONOUS = "NORMAL";
+    /**
+     * Size of the page cache of the writer, in KiB
+     */
+    private static final int CACHE_SIZE_KIB = 4096;
+    /**
+     * Number of bytes of the database file read through memory-mapped I/O. Ignored by SQLite
+     * builds without memory-mapped I/O.
+     */
+    private static final long MMAP_SIZE_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Name of the full-text index over the title, author and supplier of the books. It is an
+     * FTS4 table that reads its content from the books table and is kept in sync by triggers.
+     */
+    static final String FTS_TABLE_NAME = "books_fts";
+
+    /**
+     * Name of the view of the books joined with their supplier, with the columns of the books
+     * table and the supplier's in {@link BookEntry#COLUMN_BOOK_SUPPLIER},
+     * {@link BookEntry#COLUMN_BOOK_SUPPLIER_PHONE} and {@link BookEntry#COLUMN_BOOK_SUPPLIER_EMAIL}.
+     * The full-text index reads its content from it.
+     */
+    static final String BOOKS_VIEW_NAME = "books_with_suppliers";
+
+    /**
+     * Name of the covering index of the catalogue, over the IDs of the books followed by the
+     * other columns of {@link BookEntry#LIST_COLUMNS}. Pages of the catalogue are read from it
+     * alone, so their rows never load the rest of the book.
+     */
+    static final String LIST_INDEX_NAME = "books_list_index";
+
+    /**
+     * Name of the rollup of the sales ledger by day and book. Each row holds the copies of a
+     * book sold on a day, kept up to date by a trigger on the ledger, so the sales of the last
+     * days are read without going through the ledger.
+     */
+    static final String SALES_DAILY_TABLE_NAME = "sales_daily";
+    /**
+     * Name of the rollup of the sales ledger by book, with the copies of each book ever sold.
+     */
+    static final String SALES_TOTALS_TABLE_NAME = "sales_totals";
+    /**
+     * Day of a row of {@link #SALES_DAILY_TABLE_NAME}, in days since the epoch, see
+     * {@link SaleEntry#DAY_MILLIS}.
+     * Type: INTEGER
+     */
+    static final String COLUMN_SALES_DAY = "day";
+
+    /**
+     * Name of the log of the suppliers whose reorder may have changed. Triggers log the
+     * supplier of a book whenever the book changes while it is, or was, at or below its reorder
+     * threshold, and the scans of the reorders read it from their watermark onwards, so they
+     * never go through the books that didn't change.
+     */
+    static final String REORDER_CHANGES_TABLE_NAME = "reorder_changes";
+
+    /**
+     * A step of the schema migration, which upgrades the database from the version before
+     * {@link #version} to {@link #version}.
+     */
+    private abstract static class Migration {
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * The schema migrations, in order. To change the schema, append a step and increment the
+     * database version. Don't change a step once it has been released: users may already have
+     * run it.
+     */
+    private static final Migration[] MIGRATIONS = {
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Add the full-text index, built from the books already in the table
+                    createSearchIndex(db);
+                }
+            },
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Store the type as an INTEGER, like the BookEntry.TYPE_* values. SQLite can't
+                    // change the type of a column, so copy the books to a new table.
+                    rebuildBooksTable(db, "CREATE TABLE %s ("
+                                    + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                                    + BookEntry.COLUMN_BOOK_TITLE + " TEXT NOT NULL, "
+                                    + BookEntry.COLUMN_BOOK_AUTHOR + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_TYPE + " INTEGER NOT NULL DEFAULT " + BookEntry.TYPE_UNKNOWN + ", "
+                                    + BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL, "
+                                    + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                                    + BookEntry.COLUMN_BOOK_SUPPLIER + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL + " TEXT NOT NULL, "
+                                    + BookEntry.COLUMN_BOOK_IMAGE + " TEXT);",
+                            new String[]{
+                                    BookEntry._ID,
+                                    BookEntry.COLUMN_BOOK_TITLE,
+                                    BookEntry.COLUMN_BOOK_AUTHOR,
+                                    BookEntry.COLUMN_BOOK_TYPE,
+                                    BookEntry.COLUMN_BOOK_PRICE,
+                                    BookEntry.COLUMN_BOOK_QUANTITY,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+                                    BookEntry.COLUMN_BOOK_IMAGE},
+                            new String[]{
+                                    BookEntry._ID,
+                                    BookEntry.COLUMN_BOOK_TITLE,
+                                    BookEntry.COLUMN_BOOK_AUTHOR,
+                                    "COALESCE(CAST(" + BookEntry.COLUMN_BOOK_TYPE + " AS INTEGER), "
+                                            + BookEntry.TYPE_UNKNOWN + ")",
+                                    BookEntry.COLUMN_BOOK_PRICE,
+                                    BookEntry.COLUMN_BOOK_QUANTITY,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+                                    BookEntry.COLUMN_BOOK_IMAGE});
+                    // Dropping the old table dropped the triggers of the full-text index
+                    createSearchTriggers(db);
+
+                    // Index the columns the books are looked up and filtered by
+                    createIndex(db, BookEntry.COLUMN_BOOK_TITLE);
+                    createIndex(db, BookEntry.COLUMN_BOOK_SUPPLIER);
+                    createIndex(db, BookEntry.COLUMN_BOOK_QUANTITY);
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Add the thumbnails generated when an image is attached to a book
+                    addColumn(db, BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL + " TEXT");
+                    addColumn(db, BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM + " TEXT");
+                    addColumn(db, BookEntry.COLUMN_BOOK_IMAGE_HASH + " TEXT");
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Record every sale in a ledger, rolled up by day and by book
+                    createSalesTables(db);
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Move the suppliers to their own table, one row for each distinct supplier
+                    String supplierColumns = BookEntry.COLUMN_BOOK_SUPPLIER + ", "
+                            + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + ", "
+                            + BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL;
+                    db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE + " TEXT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL);");
+                    // Suppliers are looked up by email when a book is written
+                    db.execSQL("CREATE INDEX " + SupplierEntry.TABLE_NAME + "_"
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + "_index ON "
+                            + SupplierEntry.TABLE_NAME + " (" + SupplierEntry.COLUMN_SUPPLIER_EMAIL + ");");
+                    db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + SupplierEntry.COLUMN_SUPPLIER_PHONE + ", "
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + ") SELECT "
+                            + supplierColumns + " FROM " + BookEntry.TABLE_NAME
+                            + " GROUP BY " + supplierColumns + " ORDER BY MIN(" + BookEntry._ID + ");");
+
+                    // Replace the supplier columns of the books with a reference to the supplier
+                    rebuildBooksTable(db, "CREATE TABLE %s ("
+                                    + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                                    + BookEntry.COLUMN_BOOK_TITLE + " TEXT NOT NULL, "
+                                    + BookEntry.COLUMN_BOOK_AUTHOR + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_TYPE + " INTEGER NOT NULL DEFAULT " + BookEntry.TYPE_UNKNOWN + ", "
+                                    + BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL, "
+                                    + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                                    + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                                    + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "), "
+                                    + BookEntry.COLUMN_BOOK_IMAGE + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM + " TEXT, "
+                                    + BookEntry.COLUMN_BOOK_IMAGE_HASH + " TEXT);",
+                            new String[]{
+                                    BookEntry._ID,
+                                    BookEntry.COLUMN_BOOK_TITLE,
+                                    BookEntry.COLUMN_BOOK_AUTHOR,
+                                    BookEntry.COLUMN_BOOK_TYPE,
+                                    BookEntry.COLUMN_BOOK_PRICE,
+                                    BookEntry.COLUMN_BOOK_QUANTITY,
+                                    BookEntry.COLUMN_BOOK_SUPPLIER_ID,
+                                    BookEntry.COLUMN_BOOK_IMAGE,
+                                    BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+                                    BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM,
+                                    BookEntry.COLUMN_BOOK_IMAGE_HASH},
+                            new String[]{
+                                    BookEntry._ID,
+                                    BookEntry.COLUMN_BOOK_TITLE,
+                                    BookEntry.COLUMN_BOOK_AUTHOR,
+                                    BookEntry.COLUMN_BOOK_TYPE,
+                                    BookEntry.COLUMN_BOOK_PRICE,
+                                    BookEntry.COLUMN_BOOK_QUANTITY,
+                                    "(SELECT " + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME
+                                            + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " = "
+                                            + BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL
+                                            + " AND " + SupplierEntry.COLUMN_SUPPLIER_NAME + " IS "
+                                            + BookEntry.COLUMN_BOOK_SUPPLIER
+                                            + " AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE + " IS "
+                                            + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + ")",
+                                    BookEntry.COLUMN_BOOK_IMAGE,
+                                    BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+                                    BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM,
+                                    BookEntry.COLUMN_BOOK_IMAGE_HASH});
+                    createIndex(db, BookEntry.COLUMN_BOOK_TITLE);
+                    createIndex(db, BookEntry.COLUMN_BOOK_QUANTITY);
+                    createIndex(db, BookEntry.COLUMN_BOOK_SUPPLIER_ID);
+
+                    // The full-text index now reads the supplier through the view
+                    db.execSQL("DROP TABLE " + FTS_TABLE_NAME + ";");
+                    createBooksView(db);
+                    createJoinedSearchIndex(db);
+                }
+            },
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Serve the catalogue from a covering index
+                    db.execSQL("CREATE INDEX " + LIST_INDEX_NAME + " ON " + BookEntry.TABLE_NAME
+                            + " (" + TextUtils.join(", ", BookEntry.LIST_COLUMNS) + ");");
+                }
+            },
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Reorder the books at or below their threshold from their supplier
+                    addColumn(db, BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT "
+                            + BookEntry.LOW_STOCK_QUANTITY);
+                    createReorderTables(db);
+                }
+            }
+    };
 
     /**
      * Constructs a new instance of {@link BookDbHelper}.
@@ -31,6 +291,25 @@ public class BookDbHelper extends SQLiteOpenHelper {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * This is called when the database connection is being configured, before it is created
+     * or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Enabling write-ahead logging resets the synchronous mode, so it goes first
+        if (WRITE_AHEAD_LOGGING) {
+            db.enableWriteAheadLogging();
+        }
+        setPragma(db, "synchronous", SYNCHRONOUS);
+        // A negative cache size is a number of KiB rather than a number of pages
+        setPragma(db, "cache_size", String.valueOf(-CACHE_SIZE_KIB));
+        setPragma(db, "mmap_size", String.valueOf(MMAP_SIZE_BYTES));
+        // Every book must have a supplier, and a supplier can't be deleted while it has books
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
     /**
      * This is called when the database is created for the first time.
      */
@@ -51,6 +330,10 @@ public class BookDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_BOOKS_TABLE);
+
+        // This is the schema of version 1. Bring it up to date with the same steps as an
+        // upgrade, so that new and upgraded databases can't end up with different schemas.
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
@@ -58,10 +341,306 @@ public class BookDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        migrate(db, oldVersion, newVersion);
     }
 
+    /**
+     * Set a pragma on the given connection. Some pragmas return their new value, so they are run
+     * as a query rather than with execSQL().
+     */
+    private static void setPragma(SQLiteDatabase db, String name, String value) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name + " = " + value, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run the migrations that take the database from one version to the other, in order. Each
+     * step runs in its own transaction, nested in the one of the upgrade.
+     */
+    private static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= fromVersion || migration.version > toVersion) {
+                continue;
+            }
+            Log.i(LOG_TAG, "Migrating database to version " + migration.version);
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Drop every view and table of the app, with their indexes and triggers. The books go first,
+     * as they reference the suppliers, and the full-text index before the tables it's stored in.
+     */
+    private static void dropSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master"
+                + " WHERE type IN ('view', 'table') AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\'"
+                + " AND name != 'android_metadata'"
+                + " ORDER BY type = 'view' DESC, name = ? DESC, sql LIKE 'CREATE VIRTUAL TABLE%' DESC",
+                new String[]{BookEntry.TABLE_NAME});
+        try {
+            while (cursor.moveToNext()) {
+                // Dropping the full-text index drops its own tables, so they may be gone already
+                db.execSQL("DROP " + cursor.getString(0) + " IF EXISTS "
+                        + cursor.getString(1) + ";");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the books table with one created by the given statement, copying every book.
+     *
+     * @param createTable   statement that creates the new table, with %s for its name
+     * @param columns       columns of the new table to copy the books into
+     * @param sourceColumns expressions over the old table that give the value of each column
+     */
+    private static void rebuildBooksTable(SQLiteDatabase db, String createTable,
+                                          String[] columns, String[] sourceColumns) {
+        String newTable = BookEntry.TABLE_NAME + "_new";
+        db.execSQL(String.format(createTable, newTable));
+        db.execSQL("INSERT INTO " + newTable + " (" + TextUtils.join(", ", columns) + ") SELECT "
+                + TextUtils.join(", ", sourceColumns) + " FROM " + BookEntry.TABLE_NAME + ";");
+
+        // Carry the AUTOINCREMENT counter over, so the IDs of deleted books are never reused
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "';");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + newTable + "', seq"
+                + " FROM sqlite_sequence WHERE name = '" + BookEntry.TABLE_NAME + "';");
+
+        db.execSQL("DROP TABLE " + BookEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + BookEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Add a column, given by its definition, to the books table.
+     */
+    private static void addColumn(SQLiteDatabase db, String columnDefinition) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN " + columnDefinition + ";");
+    }
+
+    /**
+     * Create an index on the given column of the books table.
+     */
+    private static void createIndex(SQLiteDatabase db, String column) {
+        db.execSQL("CREATE INDEX " + BookEntry.TABLE_NAME + "_" + column + "_index ON "
+                + BookEntry.TABLE_NAME + " (" + column + ");");
+    }
+
+    /**
+     * Create the full-text index of the books, the triggers that keep it up to date and index
+     * the books that are already in the table.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + BookEntry.TABLE_NAME + "\", "
+                + BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ");");
+        createSearchTriggers(db);
+
+        // Index the books that are already there
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (" + FTS_TABLE_NAME + ") VALUES ('rebuild');");
+    }
+
+    /**
+     * Create the triggers that keep the full-text index in sync with the books table.
+     */
+    private static void createSearchTriggers(SQLiteDatabase db) {
+        // Only changes to the indexed columns need to touch the index, so that a sale doesn't.
+        String indexedColumns = BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER;
+        String deleteOld = "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + BookEntry._ID + ";";
+        String insertNew = "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + indexedColumns + ") VALUES (new."
+                + BookEntry._ID + ", new." + BookEntry.COLUMN_BOOK_TITLE + ", new."
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", new." + BookEntry.COLUMN_BOOK_SUPPLIER + ");";
+
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_update BEFORE UPDATE OF "
+                + indexedColumns + " ON " + BookEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_delete BEFORE DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_update AFTER UPDATE OF "
+                + indexedColumns + " ON " + BookEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+    }
+
+    /**
+     * Create the sales ledger, its rollups and the triggers that maintain them. The ledger can
+     * only be appended to, so the rollups never need to be rebuilt from it.
+     */
+    private static void createSalesTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SaleEntry.COLUMN_SALE_BOOK_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_SALE_QUANTITY + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_SALE_TIME + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE " + SALES_DAILY_TABLE_NAME + " ("
+                + COLUMN_SALES_DAY + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_SALE_BOOK_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_SALE_QUANTITY + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_SALES_DAY + ", " + SaleEntry.COLUMN_SALE_BOOK_ID + "));");
+        db.execSQL("CREATE TABLE " + SALES_TOTALS_TABLE_NAME + " ("
+                + SaleEntry.COLUMN_SALE_BOOK_ID + " INTEGER PRIMARY KEY, "
+                + SaleEntry.COLUMN_SALE_QUANTITY + " INTEGER NOT NULL);");
+
+        // Add each sale to the rollups in the transaction that records it. The rows are created
+        // empty first, as the SQLite of older devices has no upsert.
+        String day = "new." + SaleEntry.COLUMN_SALE_TIME + " / " + SaleEntry.DAY_MILLIS;
+        String bookId = "new." + SaleEntry.COLUMN_SALE_BOOK_ID;
+        String addQuantity = " SET " + SaleEntry.COLUMN_SALE_QUANTITY + " = "
+                + SaleEntry.COLUMN_SALE_QUANTITY + " + new." + SaleEntry.COLUMN_SALE_QUANTITY;
+        db.execSQL("CREATE TRIGGER " + SaleEntry.TABLE_NAME + "_after_insert AFTER INSERT ON "
+                + SaleEntry.TABLE_NAME + " BEGIN "
+                + "INSERT OR IGNORE INTO " + SALES_DAILY_TABLE_NAME + " VALUES (" + day + ", " + bookId + ", 0); "
+                + "UPDATE " + SALES_DAILY_TABLE_NAME + addQuantity
+                + " WHERE " + COLUMN_SALES_DAY + " = " + day
+                + " AND " + SaleEntry.COLUMN_SALE_BOOK_ID + " = " + bookId + "; "
+                + "INSERT OR IGNORE INTO " + SALES_TOTALS_TABLE_NAME + " VALUES (" + bookId + ", 0); "
+                + "UPDATE " + SALES_TOTALS_TABLE_NAME + addQuantity
+                + " WHERE " + SaleEntry.COLUMN_SALE_BOOK_ID + " = " + bookId + "; "
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + SaleEntry.TABLE_NAME + "_before_update BEFORE UPDATE ON "
+                + SaleEntry.TABLE_NAME + " BEGIN SELECT RAISE(ABORT, 'Sales can not be changed'); END;");
+        db.execSQL("CREATE TRIGGER " + SaleEntry.TABLE_NAME + "_before_delete BEFORE DELETE ON "
+                + SaleEntry.TABLE_NAME + " BEGIN SELECT RAISE(ABORT, 'Sales can not be deleted'); END;");
+    }
+
+    /**
+     * Create the drafts of the reorders, the log of the suppliers they need to be scanned for
+     * and the triggers that fill it. The suppliers of the books already low on stock are logged
+     * so that the first scan drafts their reorders.
+     */
+    private static void createReorderTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ReorderEntry.TABLE_NAME + " ("
+                + ReorderEntry._ID + " INTEGER PRIMARY KEY, "
+                + ReorderEntry.COLUMN_REORDER_LINES + " TEXT NOT NULL, "
+                + ReorderEntry.COLUMN_REORDER_COPIES + " INTEGER NOT NULL, "
+                + ReorderEntry.COLUMN_REORDER_TIME + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE " + REORDER_CHANGES_TABLE_NAME + " ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " INTEGER NOT NULL);");
+
+        // Only books that are or were low on stock can change a draft, so that most sales don't
+        // log anything. A change of title changes the lines of the draft.
+        String oldLow = "old." + BookEntry.COLUMN_BOOK_QUANTITY
+                + " <= old." + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD;
+        String newLow = "new." + BookEntry.COLUMN_BOOK_QUANTITY
+                + " <= new." + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD;
+        String logSupplier = "INSERT INTO " + REORDER_CHANGES_TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ") ";
+        db.execSQL("CREATE TRIGGER " + REORDER_CHANGES_TABLE_NAME + "_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " WHEN " + newLow + " BEGIN "
+                + logSupplier + "VALUES (new." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + "); END;");
+        db.execSQL("CREATE TRIGGER " + REORDER_CHANGES_TABLE_NAME + "_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME
+                + " WHEN " + oldLow + " OR " + newLow + " BEGIN "
+                + logSupplier + "SELECT old." + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                + " UNION SELECT new." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + REORDER_CHANGES_TABLE_NAME + "_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " WHEN " + oldLow + " BEGIN "
+                + logSupplier + "VALUES (old." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + "); END;");
+
+        db.execSQL(logSupplier + "SELECT DISTINCT " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_BOOK_QUANTITY
+                + " <= " + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + ";");
+    }
+
+    /**
+     * Create the view of the books joined with their supplier. It also names the ID of the
+     * books rowid, which is how the full-text index finds the content of its entries.
+     */
+    private static void createBooksView(SQLiteDatabase db) {
+        String books = BookEntry.TABLE_NAME + ".";
+        String suppliers = SupplierEntry.TABLE_NAME + ".";
+        db.execSQL("CREATE VIEW " + BOOKS_VIEW_NAME + " AS SELECT "
+                + books + BookEntry._ID + " AS rowid, "
+                + books + "*, "
+                + suppliers + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + BookEntry.COLUMN_BOOK_SUPPLIER + ", "
+                + suppliers + SupplierEntry.COLUMN_SUPPLIER_PHONE + " AS " + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE + ", "
+                + suppliers + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " AS " + BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + books + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = " + suppliers + SupplierEntry._ID + ";");
+    }
+
+    /**
+     * Create the full-text index of the books over {@link #BOOKS_VIEW_NAME}, the triggers that
+     * keep it up to date with the books and their suppliers, and index the books that are
+     * already there.
+     */
+    private static void createJoinedSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + BOOKS_VIEW_NAME + "\", "
+                + BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ");");
+
+        // The entries are deleted before the change, while the index can still read what it
+        // indexed, and added again from the view after it
+        String insert = "INSERT INTO " + FTS_TABLE_NAME + " (docid, "
+                + BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ") SELECT "
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + " FROM " + BOOKS_VIEW_NAME + " WHERE ";
+
+        // Only changes to the indexed columns need to touch the index, so that a sale doesn't.
+        String indexedColumns = BookEntry.COLUMN_BOOK_TITLE + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID;
+        String deleteOld = "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + BookEntry._ID + ";";
+        String insertNew = insert + BookEntry._ID + " = new." + BookEntry._ID + ";";
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_update BEFORE UPDATE OF "
+                + indexedColumns + " ON " + BookEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_delete BEFORE DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_update AFTER UPDATE OF "
+                + indexedColumns + " ON " + BookEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+
+        // Renaming a supplier changes the entries of all its books
+        String deleteSupplierBooks = "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid IN (SELECT "
+                + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME + " WHERE "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = old." + SupplierEntry._ID + ");";
+        String insertSupplierBooks = insert + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = new."
+                + SupplierEntry._ID + ";";
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_before_supplier_update BEFORE UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                + " BEGIN " + deleteSupplierBooks + " END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_after_supplier_update AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                + " BEGIN " + insertSupplierBooks + " END;");
+
+        // Index the books that are already there
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (" + FTS_TABLE_NAME + ") VALUES ('rebuild');");
+    }
+
+    /**
+     * This is called when the database is newer than the app, after an older version of the app
+     * was installed. The migrations only go forward, so the schema is dropped and created again,
+     * without the books.
+     */
+    @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+        Log.w(LOG_TAG, "Downgrading database from version " + oldVersion + " to " + newVersion
+                + ", which deletes every book");
+        dropSchema(db);
+        onCreate(db);
     }
 }
\ No newline at end of file
@@ -0,0 +1,302 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports the stock of every book to a CSV or JSON Lines file. The books are read a page at a
+ * time, keyed on their ID, and written straight to a buffered stream, so only one page of rows
+ * is ever in memory whatever the size of the inventory.
+ */
+public class BookExporter {
+
+    public static final String LOG_TAG = BookExporter.class.getSimpleName();
+
+    /**
+     * Format of an export
+     */
+    public enum Format {
+        /**
+         * Comma-separated values, with a header line naming the columns
+         */
+        CSV("text/csv"),
+        /**
+         * One JSON object per line
+         */
+        JSON_LINES("application/x-ndjson");
+
+        public final String mMimeType;
+
+        Format(String mimeType) {
+            mMimeType = mimeType;
+        }
+    }
+
+    /**
+     * Number of books read by each page query. Small enough for a page to fit in one cursor
+     * window.
+     */
+    private static final int PAGE_SIZE = 1000;
+    /**
+     * Size of the buffer the file is written through, in characters
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Columns exported, which are all an accounting snapshot needs
+     */
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_TITLE,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+    /**
+     * Whether each column of {@link #PROJECTION} holds a number
+     */
+    private static final boolean[] NUMERIC = {true, false, false, false, true, true};
+
+    /**
+     * Runs the exports one at a time, off the main thread
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Outcome of an export
+     */
+    public static class Result {
+        public final int mRowCount;
+        public final long mElapsedMs;
+
+        Result(int rowCount, long elapsedMs) {
+            mRowCount = rowCount;
+            mElapsedMs = elapsedMs;
+        }
+
+        /**
+         * Returns the number of rows written per second.
+         */
+        public long getRowsPerSecond() {
+            return mElapsedMs == 0 ? mRowCount * 1000L : mRowCount * 1000L / mElapsedMs;
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    public BookExporter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Export the books to the given file in the background. The callback, called on the main
+     * thread, gets the outcome of the export or null if it failed.
+     */
+    public void exportInBackground(final Uri destination, final Format format,
+                                   final BookWriter.Callback<Result> callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result = null;
+                try {
+                    result = export(destination, format);
+                } catch (IOException | RuntimeException e) {
+                    // A RuntimeException covers a SecurityException from the destination and an
+                    // SQLiteException from the query, either of which must still reach the callback
+                    Log.e(LOG_TAG, "Failed to export to " + destination, e);
+                } finally {
+                    final Result exportResult = result;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onWriteComplete(exportResult);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Export the books to the given file, replacing its content. Blocks until every book has
+     * been written, so it must not be called on the main thread.
+     */
+    public Result export(Uri destination, Format format) throws IOException {
+        OutputStream output = mResolver.openOutputStream(destination, "w");
+        if (output == null) {
+            throw new FileNotFoundException("Can't open " + destination);
+        }
+        try {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(output, Charset.forName("UTF-8")), BUFFER_SIZE);
+            Result result = export(writer, format);
+            writer.flush();
+            return result;
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Write every book to the given writer, which isn't flushed.
+     */
+    public Result export(Writer writer, Format format) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        if (format == Format.CSV) {
+            writeCsvHeader(writer);
+        }
+
+        int rowCount = 0;
+        long lastId = 0;
+        while (true) {
+            Cursor cursor = mResolver.query(BookEntry.buildPageUri(lastId, PAGE_SIZE),
+                    PROJECTION, null, null, null);
+            if (cursor == null) {
+                throw new IOException("Failed to query the books");
+            }
+            int pageCount;
+            try {
+                pageCount = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    if (format == Format.CSV) {
+                        writeCsvRow(writer, cursor);
+                    } else {
+                        writeJsonRow(writer, cursor);
+                    }
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            rowCount += pageCount;
+            if (pageCount < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        Result result = new Result(rowCount, SystemClock.elapsedRealtime() - start);
+        Log.i(LOG_TAG, "Exported " + rowCount + " books as " + format + " in "
+                + result.mElapsedMs + " ms (" + result.getRowsPerSecond() + " rows/s)");
+        return result;
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < PROJECTION.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(PROJECTION[i]);
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for (int i = 0; i < PROJECTION.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (cursor.isNull(i)) {
+                continue;
+            }
+            if (NUMERIC[i]) {
+                writer.write(Long.toString(cursor.getLong(i)));
+            } else {
+                writeCsvString(writer, cursor.getString(i));
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Write a CSV field, quoted if it holds a delimiter, a quote or a line break.
+     */
+    private static void writeCsvString(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < PROJECTION.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeJsonString(writer, PROJECTION[i]);
+            writer.write(':');
+            if (cursor.isNull(i)) {
+                writer.write("null");
+            } else if (NUMERIC[i]) {
+                writer.write(Long.toString(cursor.getLong(i)));
+            } else {
+                writeJsonString(writer, cursor.getString(i));
+            }
+        }
+        writer.write("}\n");
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports books from a CSV or TSV file, such as a supplier's catalogue. The first line of the
+ * file names the columns, using the column names of {@link BookEntry} ("title", "price",
+ * "email_supplier"...). Columns with other names are ignored.
+ * <p>
+ * The file is streamed through a fixed-size buffer and the books are inserted in chunks of
+ * {@link #CHUNK_SIZE}, one transaction each, so the memory used doesn't grow with the file.
+ * Rows that break the rules of {@link BookProvider} are reported and skipped.
+ */
+public class BookImporter {
+
+    public static final String LOG_TAG = BookImporter.class.getSimpleName();
+
+    /**
+     * Number of books inserted by each transaction
+     */
+    public static final int CHUNK_SIZE = 500;
+    /**
+     * Size of the buffer the file is read through, in characters
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /**
+     * Maximum number of row errors reported to the listener; later ones are only counted
+     */
+    private static final int MAX_REPORTED_ERRORS = 100;
+    /**
+     * Longest first line considered when guessing the delimiter, in characters
+     */
+    private static final int MAX_HEADER_LENGTH = 4 * 1024;
+
+    /**
+     * Columns that can be imported
+     */
+    private static final String[] COLUMNS = {
+            BookEntry.COLUMN_BOOK_TITLE,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_TYPE,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+            BookEntry.COLUMN_BOOK_IMAGE};
+
+    /**
+     * Callback for the progress of an import. Called on the thread running the import.
+     */
+    public interface Listener {
+        /**
+         * Called after each chunk of books has been committed.
+         *
+         * @param rowsRead     number of rows read so far, header excluded
+         * @param rowsImported number of books inserted so far
+         */
+        void onProgress(int rowsRead, int rowsImported);
+
+        /**
+         * Called for a row that couldn't be imported.
+         *
+         * @param line    of the file the row starts on, counting from 1
+         * @param message saying what is wrong with the row
+         */
+        void onRowError(int line, String message);
+    }
+
+    /**
+     * Outcome of an import
+     */
+    public static class Result {
+        public final int mRowsRead;
+        public final int mRowsImported;
+        public final int mRowsFailed;
+
+        Result(int rowsRead, int rowsImported, int rowsFailed) {
+            mRowsRead = rowsRead;
+            mRowsImported = rowsImported;
+            mRowsFailed = rowsFailed;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+
+    public BookImporter(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Import the books of the file at the given URI. Blocks until the whole file has been read,
+     * so it must not be called on the main thread. The books of the chunks committed before an
+     * I/O error stay in the store.
+     *
+     * @throws IOException if the file can't be read, or has no title, price or supplier's
+     *                     email column
+     */
+    public Result importBooks(Uri source) throws IOException {
+        InputStream input = mResolver.openInputStream(source);
+        if (input == null) {
+            throw new FileNotFoundException("Can't open " + source);
+        }
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(input, Charset.forName("UTF-8")), BUFFER_SIZE);
+            CsvReader csv = new CsvReader(reader, guessDelimiter(reader));
+            return importBooks(csv);
+        } finally {
+            input.close();
+        }
+    }
+
+    private Result importBooks(CsvReader csv) throws IOException {
+        List<String> fields = new ArrayList<>();
+        if (!csv.readRecord(fields)) {
+            throw new IOException("The file is empty");
+        }
+        int[] columnFields = mapColumns(fields);
+
+        ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+        int chunkSize = 0;
+        int rowsRead = 0;
+        int rowsImported = 0;
+        int rowsFailed = 0;
+        while (csv.readRecord(fields)) {
+            if (isBlank(fields)) {
+                continue;
+            }
+            rowsRead++;
+
+            ContentValues values = new ContentValues();
+            try {
+                readBook(fields, columnFields, values);
+                BookProvider.validateBook(values);
+            } catch (IllegalArgumentException e) {
+                rowsFailed++;
+                if (rowsFailed <= MAX_REPORTED_ERRORS) {
+                    mListener.onRowError(csv.getRecordLine(), e.getMessage());
+                }
+                continue;
+            }
+
+            chunk[chunkSize++] = values;
+            if (chunkSize == CHUNK_SIZE) {
+                rowsImported += mResolver.bulkInsert(BookEntry.CONTENT_URI, chunk);
+                chunkSize = 0;
+                mListener.onProgress(rowsRead, rowsImported);
+            }
+        }
+        if (chunkSize > 0) {
+            ContentValues[] lastChunk = new ContentValues[chunkSize];
+            System.arraycopy(chunk, 0, lastChunk, 0, chunkSize);
+            rowsImported += mResolver.bulkInsert(BookEntry.CONTENT_URI, lastChunk);
+        }
+        mListener.onProgress(rowsRead, rowsImported);
+
+        Log.i(LOG_TAG, "Imported " + rowsImported + " of " + rowsRead + " books, "
+                + rowsFailed + " rows failed");
+        return new Result(rowsRead, rowsImported, rowsFailed);
+    }
+
+    /**
+     * Returns the delimiter of the file: a tab if its first line has more tabs than commas, a
+     * comma otherwise. The reader is left at the start of the file.
+     */
+    private static char guessDelimiter(BufferedReader reader) throws IOException {
+        reader.mark(MAX_HEADER_LENGTH);
+        int tabs = 0;
+        int commas = 0;
+        for (int i = 0; i < MAX_HEADER_LENGTH; i++) {
+            int c = reader.read();
+            if (c == -1 || c == '\n' || c == '\r') {
+                break;
+            } else if (c == '\t') {
+                tabs++;
+            } else if (c == ',') {
+                commas++;
+            }
+        }
+        reader.reset();
+        return tabs > commas ? '\t' : ',';
+    }
+
+    /**
+     * Returns, for each of {@link #COLUMNS}, the index of its field in the rows, or -1 if the
+     * file doesn't have the column.
+     */
+    private static int[] mapColumns(List<String> header) throws IOException {
+        int[] columnFields = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columnFields[i] = -1;
+            for (int field = 0; field < header.size(); field++) {
+                if (COLUMNS[i].equalsIgnoreCase(header.get(field).trim())) {
+                    columnFields[i] = field;
+                    break;
+                }
+            }
+        }
+
+        // Rows can't be valid without these
+        String[] required = {
+                BookEntry.COLUMN_BOOK_TITLE,
+                BookEntry.COLUMN_BOOK_PRICE,
+                BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL};
+        for (String column : required) {
+            if (columnFields[indexOf(column)] == -1) {
+                throw new IOException("The file has no " + column + " column");
+            }
+        }
+        return columnFields;
+    }
+
+    /**
+     * Read the book of a row into the given values. The type and quantity default to unknown
+     * and 0, as in the editor.
+     *
+     * @throws IllegalArgumentException if a number can't be read
+     */
+    private static void readBook(List<String> fields, int[] columnFields, ContentValues values) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String column = COLUMNS[i];
+            String value = columnFields[i] < fields.size() && columnFields[i] != -1
+                    ? fields.get(columnFields[i]).trim() : null;
+
+            if (BookEntry.COLUMN_BOOK_TYPE.equals(column)) {
+                values.put(column, parseType(value));
+            } else if (BookEntry.COLUMN_BOOK_PRICE.equals(column)) {
+                values.put(column, parseInt(column, value, null));
+            } else if (BookEntry.COLUMN_BOOK_QUANTITY.equals(column)) {
+                values.put(column, parseInt(column, value, 0));
+            } else if (value == null || value.isEmpty()) {
+                values.putNull(column);
+            } else {
+                values.put(column, value);
+            }
+        }
+    }
+
+    /**
+     * Parse the type of a book, given either as its number or its name.
+     */
+    private static int parseType(String value) {
+        if (value == null || value.isEmpty()) {
+            return BookEntry.TYPE_UNKNOWN;
+        }
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "unknown":
+                return BookEntry.TYPE_UNKNOWN;
+            case "novel":
+                return BookEntry.TYPE_NOVEL;
+            case "technical":
+                return BookEntry.TYPE_TECHNICAL;
+            default:
+                return parseInt(BookEntry.COLUMN_BOOK_TYPE, value, null);
+        }
+    }
+
+    private static Integer parseInt(String column, String value, Integer defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + column);
+    }
+
+    private static boolean isBlank(List<String> fields) {
+        for (String field : fields) {
+            if (!field.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Reads {@link Book}s from the rows of a cursor of books, and turns books into the values the
+ * {@link BookProvider} writes. The columns are looked up once, when the mapper is created, and
+ * a row can be read into the same book as the previous one, so that reading a whole cursor
+ * allocates nothing but the strings of its rows.
+ */
+public final class BookMapper {
+
+    private final Cursor mCursor;
+    private final int mIdColumnIndex;
+    private final int mTitleColumnIndex;
+    private final int mAuthorColumnIndex;
+    private final int mTypeColumnIndex;
+    private final int mPriceColumnIndex;
+    private final int mQuantityColumnIndex;
+    private final int mSupplierIdColumnIndex;
+    private final int mSupplierColumnIndex;
+    private final int mSupplierPhoneColumnIndex;
+    private final int mSupplierEmailColumnIndex;
+    private final int mImageColumnIndex;
+    private final int mThumbnailSmallColumnIndex;
+    private final int mThumbnailMediumColumnIndex;
+    private final int mReorderThresholdColumnIndex;
+
+    /**
+     * Create a mapper of the rows of the given cursor, which may have any of the columns of
+     * {@link BookEntry}.
+     */
+    public BookMapper(Cursor cursor) {
+        mCursor = cursor;
+        mIdColumnIndex = cursor.getColumnIndex(BookEntry._ID);
+        mTitleColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_TITLE);
+        mAuthorColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHOR);
+        mTypeColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_TYPE);
+        mPriceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
+        mQuantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
+        mSupplierIdColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_ID);
+        mSupplierColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER);
+        mSupplierPhoneColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
+        mSupplierEmailColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL);
+        mImageColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_IMAGE);
+        mThumbnailSmallColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL);
+        mThumbnailMediumColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM);
+        mReorderThresholdColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD);
+    }
+
+    /**
+     * Read the current row of the cursor into the given book, and return it. The fields of the
+     * columns the cursor doesn't have are left as they are.
+     */
+    public Book read(Book book) {
+        Cursor cursor = mCursor;
+        if (mIdColumnIndex != -1) {
+            book.setId(cursor.getLong(mIdColumnIndex));
+        }
+        if (mTitleColumnIndex != -1) {
+            book.setTitle(cursor.getString(mTitleColumnIndex));
+        }
+        if (mAuthorColumnIndex != -1) {
+            book.setAuthor(cursor.getString(mAuthorColumnIndex));
+        }
+        if (mTypeColumnIndex != -1) {
+            book.setType(cursor.getInt(mTypeColumnIndex));
+        }
+        if (mPriceColumnIndex != -1) {
+            book.setPrice(cursor.getInt(mPriceColumnIndex));
+        }
+        if (mQuantityColumnIndex != -1) {
+            book.setQuantity(cursor.getInt(mQuantityColumnIndex));
+        }
+        if (mSupplierIdColumnIndex != -1) {
+            book.setSupplierId(cursor.getLong(mSupplierIdColumnIndex));
+        }
+        if (mSupplierColumnIndex != -1) {
+            book.setSupplier(cursor.getString(mSupplierColumnIndex));
+        }
+        if (mSupplierPhoneColumnIndex != -1) {
+            book.setSupplierPhone(cursor.getString(mSupplierPhoneColumnIndex));
+        }
+        if (mSupplierEmailColumnIndex != -1) {
+            book.setSupplierEmail(cursor.getString(mSupplierEmailColumnIndex));
+        }
+        if (mImageColumnIndex != -1) {
+            book.setImage(cursor.getString(mImageColumnIndex));
+        }
+        if (mThumbnailSmallColumnIndex != -1) {
+            book.setThumbnailSmall(cursor.getString(mThumbnailSmallColumnIndex));
+        }
+        if (mThumbnailMediumColumnIndex != -1) {
+            book.setThumbnailMedium(cursor.getString(mThumbnailMediumColumnIndex));
+        }
+        if (mReorderThresholdColumnIndex != -1) {
+            book.setReorderThreshold(cursor.getInt(mReorderThresholdColumnIndex));
+        }
+        return book;
+    }
+
+    /**
+     * Returns the values of the given book that the provider writes: all of its columns but the
+     * ID and the thumbnails. The supplier is given by its name, phone and email if any of them
+     * is set, or else by its ID.
+     */
+    public static ContentValues toValues(Book book) {
+        ContentValues values = new ContentValues(10);
+        values.put(BookEntry.COLUMN_BOOK_TITLE, book.getTitle());
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, book.getAuthor());
+        values.put(BookEntry.COLUMN_BOOK_TYPE, book.getType());
+        values.put(BookEntry.COLUMN_BOOK_PRICE, book.getPrice());
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, book.getQuantity());
+        if (book.getSupplier() == null && book.getSupplierPhone() == null
+                && book.getSupplierEmail() == null && book.getSupplierId() != -1) {
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, book.getSupplierId());
+        } else {
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER, book.getSupplier());
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, book.getSupplierPhone());
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, book.getSupplierEmail());
+        }
+        values.put(BookEntry.COLUMN_BOOK_IMAGE, book.getImage());
+        values.put(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD, book.getReorderThreshold());
+        return values;
+    }
+
+    /**
+     * Returns the values of the columns of an edited book that differ from the book it was
+     * edited from, so that an update only writes what changed. The values are empty if nothing
+     * did. The supplier is written by its name, phone and email, all three together, if any of
+     * them changed. Text is compared as an editor shows it, a null being the same as an empty
+     * string.
+     */
+    public static ContentValues toChangedValues(Book oldBook, Book newBook) {
+        ContentValues values = new ContentValues();
+        if (!sameText(oldBook.getTitle(), newBook.getTitle())) {
+            values.put(BookEntry.COLUMN_BOOK_TITLE, newBook.getTitle());
+        }
+        if (!sameText(oldBook.getAuthor(), newBook.getAuthor())) {
+            values.put(BookEntry.COLUMN_BOOK_AUTHOR, newBook.getAuthor());
+        }
+        if (oldBook.getType() != newBook.getType()) {
+            values.put(BookEntry.COLUMN_BOOK_TYPE, newBook.getType());
+        }
+        if (oldBook.getPrice() != newBook.getPrice()) {
+            values.put(BookEntry.COLUMN_BOOK_PRICE, newBook.getPrice());
+        }
+        if (oldBook.getQuantity() != newBook.getQuantity()) {
+            values.put(BookEntry.COLUMN_BOOK_QUANTITY, newBook.getQuantity());
+        }
+        if (!sameText(oldBook.getSupplier(), newBook.getSupplier())
+                || !sameText(oldBook.getSupplierPhone(), newBook.getSupplierPhone())
+                || !sameText(oldBook.getSupplierEmail(), newBook.getSupplierEmail())) {
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER, newBook.getSupplier());
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, newBook.getSupplierPhone());
+            values.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, newBook.getSupplierEmail());
+        }
+        if (!sameText(oldBook.getImage(), newBook.getImage())) {
+            values.put(BookEntry.COLUMN_BOOK_IMAGE, newBook.getImage());
+        }
+        if (oldBook.getReorderThreshold() != newBook.getReorderThreshold()) {
+            values.put(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD, newBook.getReorderThreshold());
+        }
+        return values;
+    }
+
+    private static boolean sameText(String a, String b) {
+        if (a == null || a.isEmpty()) {
+            return b == null || b.isEmpty();
+        }
+        return a.equals(b);
+    }
+}
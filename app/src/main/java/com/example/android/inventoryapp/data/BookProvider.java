@@ -1,17 +1,41 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.inventoryapp.BuildConfig;
 
 import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.MetricsEntry;
+import com.example.android.inventoryapp.data.BookContract.ReorderEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * {@link ContentProvider} for Bookstore Inventory Tracker app.
@@ -31,6 +55,42 @@ public class BookProvider extends ContentProvider {
      * URI matcher code for the content URI for a single book in the books table
      */
     private static final int BOOK_ID = 101;
+    /**
+     * URI matcher code for the content URI that searches the books table
+     */
+    private static final int BOOK_SEARCH = 102;
+    /**
+     * URI matcher code for the content URI for the totals of the books table
+     */
+    private static final int BOOK_STATS = 103;
+    /**
+     * URI matcher code for the content URI for the sales ledger
+     */
+    private static final int SALES = 200;
+    /**
+     * URI matcher code for the content URI for the copies sold of each book
+     */
+    private static final int SALES_SUMMARY = 201;
+    /**
+     * URI matcher code for the content URI for the suppliers table
+     */
+    private static final int SUPPLIERS = 300;
+    /**
+     * URI matcher code for the content URI for a single supplier in the suppliers table
+     */
+    private static final int SUPPLIER_ID = 301;
+    /**
+     * URI matcher code for the content URI for the books of a single supplier
+     */
+    private static final int SUPPLIER_BOOKS = 302;
+    /**
+     * URI matcher code for the content URI for the drafts of reorders
+     */
+    private static final int REORDERS = 400;
+    /**
+     * URI matcher code for the content URI for the metrics of the provider
+     */
+    private static final int METRICS = 500;
 
     /**
      * UriMatcher object to match a content URI to a corresponding code.
@@ -39,48 +99,334 @@ public class BookProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * Path pattern of each URI matcher code, which names its metrics
+     */
+    private static final SparseArray<String> sUriPatterns = new SparseArray<>();
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
         // should recognize. All paths added to the UriMatcher have a corresponding code to return
         // when a match is found.
 
-        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS, BOOKS);
-        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS, BOOKS);
+        addUri(BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SEARCH + "/*", BOOK_SEARCH);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_STATS, BOOK_STATS);
+        addUri(BookContract.PATH_SALES, SALES);
+        addUri(BookContract.PATH_SALES + "/" + BookContract.PATH_SUMMARY, SALES_SUMMARY);
+        addUri(BookContract.PATH_SUPPLIERS, SUPPLIERS);
+        addUri(BookContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        addUri(BookContract.PATH_SUPPLIERS + "/#/" + BookContract.PATH_BOOKS, SUPPLIER_BOOKS);
+        addUri(BookContract.PATH_REORDERS, REORDERS);
+        addUri(BookContract.PATH_METRICS, METRICS);
      }
 
+    private static void addUri(String path, int code) {
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, path, code);
+        sUriPatterns.put(code, path);
+    }
+
+    /**
+     * Maps the columns of the books to the columns of a search, which joins the books and their
+     * supplier with their full-text index.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static {
+        String[] columns = {
+                BookEntry._ID,
+                BookEntry.COLUMN_BOOK_TITLE,
+                BookEntry.COLUMN_BOOK_AUTHOR,
+                BookEntry.COLUMN_BOOK_TYPE,
+                BookEntry.COLUMN_BOOK_PRICE,
+                BookEntry.COLUMN_BOOK_QUANTITY,
+                BookEntry.COLUMN_BOOK_SUPPLIER_ID,
+                BookEntry.COLUMN_BOOK_SUPPLIER,
+                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+                BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+                BookEntry.COLUMN_BOOK_IMAGE,
+                BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+                BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM,
+                BookEntry.COLUMN_BOOK_IMAGE_HASH};
+        for (String column : columns) {
+            sSearchProjectionMap.put(column, BookDbHelper.BOOKS_VIEW_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Alias of the rollup of the sales joined with the books by a summary of the sales
+     */
+    private static final String SOLD_ALIAS = "sold";
+
+    /**
+     * Maps the columns of a summary of the sales to the books and the rollup they come from.
+     */
+    private static final Map<String, String> sSummaryProjectionMap = new HashMap<>();
+
+    static {
+        sSummaryProjectionMap.put(SaleEntry._ID,
+                BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + SaleEntry._ID);
+        sSummaryProjectionMap.put(BookEntry.COLUMN_BOOK_TITLE,
+                BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_BOOK_TITLE + " AS " + BookEntry.COLUMN_BOOK_TITLE);
+        sSummaryProjectionMap.put(SaleEntry.COLUMN_SUMMARY_UNITS_SOLD,
+                SOLD_ALIAS + "." + SaleEntry.COLUMN_SALE_QUANTITY + " AS " + SaleEntry.COLUMN_SUMMARY_UNITS_SOLD);
+    }
+
+    /**
+     * Maps the columns of the drafts of reorders to the drafts and the suppliers they're for.
+     */
+    private static final Map<String, String> sReorderProjectionMap = new HashMap<>();
+
+    static {
+        String[] columns = {
+                ReorderEntry._ID,
+                ReorderEntry.COLUMN_REORDER_LINES,
+                ReorderEntry.COLUMN_REORDER_COPIES,
+                ReorderEntry.COLUMN_REORDER_TIME};
+        for (String column : columns) {
+            sReorderProjectionMap.put(column, ReorderEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sReorderProjectionMap.put(ReorderEntry.COLUMN_REORDER_SUPPLIER, SupplierEntry.TABLE_NAME + "."
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + ReorderEntry.COLUMN_REORDER_SUPPLIER);
+        sReorderProjectionMap.put(ReorderEntry.COLUMN_REORDER_SUPPLIER_EMAIL, SupplierEntry.TABLE_NAME + "."
+                + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " AS " + ReorderEntry.COLUMN_REORDER_SUPPLIER_EMAIL);
+    }
+
+    /**
+     * Default order of a summary of the sales: best sellers first
+     */
+    private static final String SUMMARY_SORT_ORDER =
+            SaleEntry.COLUMN_SUMMARY_UNITS_SOLD + " DESC, " + SaleEntry._ID;
+
+    /**
+     * Default order of search results. Android's SQLite has no ranking function for FTS4, so
+     * rank with offsets(): books matching in their title come first, then those matching in the
+     * author and then in the supplier, and books with more matches come first within each group.
+     */
+    private static final String SEARCH_SORT_ORDER =
+            "substr(offsets(" + BookDbHelper.FTS_TABLE_NAME + "), 1, 1), "
+                    + "length(offsets(" + BookDbHelper.FTS_TABLE_NAME + ")) DESC, "
+                    + BookDbHelper.BOOKS_VIEW_NAME + "." + BookEntry._ID;
+
+    /**
+     * SQL used to insert a book by {@link #bulkInsert(Uri, ContentValues[])} and, when the values
+     * have no other column, by {@link #insert(Uri, ContentValues)}. The statement is compiled
+     * once per thread and re-bound for every row.
+     */
+    private static final String SQL_INSERT_BOOK = "INSERT INTO " + BookEntry.TABLE_NAME + " ("
+            + BookEntry.COLUMN_BOOK_TITLE + ", "
+            + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+            + BookEntry.COLUMN_BOOK_TYPE + ", "
+            + BookEntry.COLUMN_BOOK_PRICE + ", "
+            + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+            + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ", "
+            + BookEntry.COLUMN_BOOK_IMAGE + ", "
+            + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * SQL used to sell copies of a book. The stock is reduced in a single statement, and only
+     * if there are enough copies, so concurrent sales can't oversell or overwrite each other.
+     */
+    private static final String SQL_SELL_BOOK = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY + " - ?"
+            + " WHERE " + BookEntry._ID + " = ? AND " + BookEntry.COLUMN_BOOK_QUANTITY + " >= ?";
+
+    /**
+     * SQL used to record a sale in the ledger, in the transaction of the sale. Triggers add it
+     * to the rollups.
+     */
+    private static final String SQL_INSERT_SALE = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_SALE_BOOK_ID + ", "
+            + SaleEntry.COLUMN_SALE_QUANTITY + ", "
+            + SaleEntry.COLUMN_SALE_TIME + ") VALUES (?, ?, ?)";
+
+    /**
+     * SQL used to write the quantity of a single book, as the editor and the catalogue do most
+     */
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = ? WHERE " + BookEntry._ID + " = ?";
+
+    /**
+     * SQL used to write the price of a single book
+     */
+    private static final String SQL_UPDATE_PRICE = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_BOOK_PRICE + " = ? WHERE " + BookEntry._ID + " = ?";
+
+    // Indices of the statements compiled once per thread, see getStatement()
+    private static final int STATEMENT_INSERT_BOOK = 0;
+    private static final int STATEMENT_UPDATE_QUANTITY = 1;
+    private static final int STATEMENT_UPDATE_PRICE = 2;
+    private static final int STATEMENT_SELL_BOOK = 3;
+    private static final int STATEMENT_INSERT_SALE = 4;
+    private static final String[] STATEMENT_SQL = {SQL_INSERT_BOOK, SQL_UPDATE_QUANTITY, SQL_UPDATE_PRICE,
+            SQL_SELL_BOOK, SQL_INSERT_SALE};
+
+    /**
+     * Columns that {@link #SQL_INSERT_BOOK} writes, directly or through the supplier
+     */
+    private static final String[] INSERT_COLUMNS = {
+            BookEntry.COLUMN_BOOK_TITLE,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_TYPE,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_ID,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+            BookEntry.COLUMN_BOOK_IMAGE,
+            BookEntry.COLUMN_BOOK_REORDER_THRESHOLD};
+
+    /**
+     * Value of {@link #getLong(ContentValues, String, long)} for a missing column
+     */
+    private static final long MISSING = Long.MIN_VALUE;
+
     private BookDbHelper mDbHelper;
 
+    /**
+     * Totals of the books table, kept up to date by the writes below
+     */
+    private final BookStats mStats = new BookStats();
+
+    /**
+     * Books opened one at a time, kept up to date by the writes below
+     */
+    private final BookCache mBookCache = new BookCache();
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the current thread. It holds whether any
+     * operation of the batch changed data, so that listeners are notified once, after the commit.
+     */
+    private final ThreadLocal<Boolean> mBatchChanges = new ThreadLocal<>();
+
+    /**
+     * Latencies and sizes of the operations, see {@link MetricsEntry}
+     */
+    private ProviderMetrics mMetrics;
+
+    /**
+     * Statements of the common writes of a single book, compiled on first use by each thread,
+     * see {@link #STATEMENT_SQL}. A statement holds its bindings until it runs, so the binder
+     * threads can't share one; guarding it with a lock would have a thread wait for it while
+     * the transaction of another one waits for the database.
+     */
+    private final ThreadLocal<Statements> mStatements = new ThreadLocal<>();
+
+    /**
+     * Every statement of {@link #mStatements} still open, whichever thread compiled it, so that
+     * {@link #shutdown()} can close them. Guarded by itself.
+     */
+    private final List<SQLiteStatement> mOpenStatements = new ArrayList<>();
+
+    /**
+     * Statements compiled by a thread on a database. A statement keeps its database open, so
+     * the ones of a database the helper has since closed are closed rather than used.
+     */
+    private static class Statements {
+        final SQLiteDatabase mDatabase;
+        final SQLiteStatement[] mStatements = new SQLiteStatement[STATEMENT_SQL.length];
+
+        Statements(SQLiteDatabase database) {
+            mDatabase = database;
+        }
+    }
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
         mDbHelper = new BookDbHelper(getContext());
+        mMetrics = new ProviderMetrics(sUriPatterns, BuildConfig.DEBUG);
         return true;
     }
 
+    /**
+     * Returns the helper of the database of the provider, so that the benchmarks can change the
+     * settings of its connections.
+     */
+    BookDbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
+    /**
+     * Close the statements compiled by every thread, and the database. Only tests shut a
+     * provider down.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (mOpenStatements) {
+            for (SQLiteStatement statement : mOpenStatements) {
+                statement.close();
+            }
+            mOpenStatements.clear();
+        }
+        mDbHelper.close();
+        super.shutdown();
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI. The query is abandoned if the given signal is
+     * cancelled, for instance when a search is replaced by a newer one.
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable CancellationSignal cancellationSignal) {
+        int match = sUriMatcher.match(uri);
+        if (match == METRICS) {
+            return mMetrics.query(projection);
+        }
+
+        long start = mMetrics.start();
+        Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        return mMetrics.recordQuery(match, start, cursor, uri, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Perform the query for the given URI, which the URI matcher matched to the given code.
+     */
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                // For the BOOKS code, query the books table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the books table.
+                // For the BOOKS code, query the books with the given projection, selection,
+                // selection arguments, and sort order. The cursor could contain multiple rows
+                // of the books table. The books are only joined with their supplier when the
+                // query needs a supplier column, see getBooksTable().
+                //
+                // A page of books can be requested with the limit, offset and after query
+                // parameters. "after" restricts the query to the books following the given ID,
+                // which the database finds through the primary key whatever the page is.
+                String afterId = uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID);
+                if (afterId != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, BookEntry._ID + " > ?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{String.valueOf(parseQueryParameter(uri, BookContract.QUERY_PARAMETER_AFTER_ID))});
+                    if (sortOrder == null) {
+                        sortOrder = BookEntry._ID;
+                    }
+                }
 
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = database.query(false, getBooksTable(projection, selection, sortOrder),
+                        projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
                 break;
             case BOOK_ID:
                 // For the BOOK_ID code, extract out the ID from the URI.
@@ -91,13 +437,125 @@ public class BookProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
+                //
+                // The book is served from the cache when it has the columns asked for, as it
+                // does for the editor.
+                if (BookCache.isCached(projection)) {
+                    cursor = mBookCache.query(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
                 // This will perform a query on the books table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, getBooksTable(projection, selection, sortOrder),
+                        projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case BOOK_SEARCH:
+                // For the BOOK_SEARCH code, look the words of the last path segment up in the
+                // full-text index and join the matching entries with the books they index.
+                // Results are ranked unless a sort order is given, and can be paged with the
+                // limit and offset query parameters.
+                String matchQuery = buildMatchQuery(uri.getLastPathSegment());
+                if (matchQuery == null) {
+                    // There is no word to search for, so nothing matches
+                    cursor = new MatrixCursor(projection != null ? projection
+                            : sSearchProjectionMap.keySet().toArray(new String[sSearchProjectionMap.size()]));
+                    break;
+                }
+
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(BookDbHelper.BOOKS_VIEW_NAME + " JOIN " + BookDbHelper.FTS_TABLE_NAME
+                        + " ON " + BookDbHelper.BOOKS_VIEW_NAME + "." + BookEntry._ID + " = "
+                        + BookDbHelper.FTS_TABLE_NAME + ".docid");
+                builder.setProjectionMap(sSearchProjectionMap);
+                selection = DatabaseUtils.concatenateWhere(BookDbHelper.FTS_TABLE_NAME + " MATCH ?", selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(new String[]{matchQuery}, selectionArgs);
+                if (sortOrder == null) {
+                    sortOrder = SEARCH_SORT_ORDER;
+                }
+
+                cursor = builder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
+
+                // The results change whenever any book does
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case BOOK_STATS:
+                // For the BOOK_STATS code, return the totals of the books table, which are
+                // only computed in full the first time
+                cursor = mStats.query(database, projection);
+
+                // The totals change whenever any book does
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case SALES:
+                // For the SALES code, query the ledger directly, oldest sales first by default
+                cursor = database.query(false, SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
+                break;
+            case SALES_SUMMARY:
+                // For the SALES_SUMMARY code, join the books with a rollup of their sales. The
+                // ledger itself is never read: the copies sold over the last days are summed
+                // from the daily rollup, which has a row per book and day at most, and the
+                // copies ever sold are read from the rollup by book.
+                SQLiteQueryBuilder summaryBuilder = new SQLiteQueryBuilder();
+                summaryBuilder.setTables(BookEntry.TABLE_NAME + " JOIN " + buildSoldTable(uri)
+                        + " AS " + SOLD_ALIAS + " ON " + BookEntry.TABLE_NAME + "." + BookEntry._ID
+                        + " = " + SOLD_ALIAS + "." + SaleEntry.COLUMN_SALE_BOOK_ID);
+                summaryBuilder.setProjectionMap(sSummaryProjectionMap);
+                if (projection == null) {
+                    projection = new String[]{
+                            SaleEntry._ID,
+                            BookEntry.COLUMN_BOOK_TITLE,
+                            SaleEntry.COLUMN_SUMMARY_UNITS_SOLD};
+                }
+                if (sortOrder == null) {
+                    sortOrder = SUMMARY_SORT_ORDER;
+                }
+
+                cursor = summaryBuilder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
+
+                // The summary changes with every sale, and its titles with the books
+                cursor.setNotificationUri(getContext().getContentResolver(), SaleEntry.CONTENT_URI);
+                return cursor;
+            case SUPPLIERS:
+                // For the SUPPLIERS code, query the suppliers table directly
+                cursor = database.query(false, SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
+                break;
+            case SUPPLIER_ID:
+                // For the SUPPLIER_ID code, query the supplier with the ID of the URI
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(false, SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case SUPPLIER_BOOKS:
+                // For the SUPPLIER_BOOKS code, query the books of the supplier whose ID is the
+                // second path segment, through the index on the supplier ID
+                selection = DatabaseUtils.concatenateWhere(selection, BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = ?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(1)});
+                cursor = database.query(false, getBooksTable(projection, selection, sortOrder),
+                        projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
+
+                // The books of the supplier change whenever any book does
+                cursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                return cursor;
+            case REORDERS:
+                // For the REORDERS code, join the drafts with the supplier they're for
+                SQLiteQueryBuilder reorderBuilder = new SQLiteQueryBuilder();
+                reorderBuilder.setTables(ReorderEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                        + " ON " + ReorderEntry.TABLE_NAME + "." + ReorderEntry._ID + " = "
+                        + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID);
+                reorderBuilder.setProjectionMap(sReorderProjectionMap);
+                cursor = reorderBuilder.query(database, projection, selection, selectionArgs,
+                        null, null, sortOrder, buildLimit(uri), cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -116,9 +574,26 @@ public class BookProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
+            case BOOK_SEARCH:
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_STATS:
+                return BookEntry.CONTENT_STATS_TYPE;
+            case SALES:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case SALES_SUMMARY:
+                return SaleEntry.CONTENT_SUMMARY_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_BOOKS:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case REORDERS:
+                return ReorderEntry.CONTENT_LIST_TYPE;
+            case METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -131,12 +606,20 @@ public class BookProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        Uri newUri;
         switch (match) {
             case BOOKS:
-                return insertBook(uri, contentValues);
+                newUri = insertBook(uri, contentValues);
+                break;
+            case SUPPLIERS:
+                newUri = insertSupplier(uri, contentValues);
+                break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
+        mMetrics.record(ProviderMetrics.INSERT, match, start, newUri == null ? 0 : 1, uri, null, null);
+        return newUri;
     }
 
     /**
@@ -144,31 +627,110 @@ public class BookProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        int rowsDeleted = delete(match, uri, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.DELETE, match, start, rowsDeleted, uri, selection, selectionArgs);
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the data at the given URI, which the URI matcher matched to the given code.
+     */
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
-
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case BOOK_ID:
                 // Delete a single row given by the ID in the URI
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SUPPLIERS:
+            case SUPPLIER_ID:
+                return deleteSupplier(uri, selection, selectionArgs);
+            case REORDERS:
+                // Drafts that have been sent are deleted by the client
+                int draftsDeleted = database.delete(ReorderEntry.TABLE_NAME, selection, selectionArgs);
+                if (draftsDeleted != 0) {
+                    notifyChange(uri);
+                }
+                return draftsDeleted;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
+
+        // Read the thumbnails and the totals of the books in the same transaction as the
+        // deletion, so that none is missed. The thumbnail files are deleted once the books are
+        // gone. When every book is deleted there is no need to read them one by one. The
+        // suppliers the deletion leaves without books are deleted in the same transaction.
+        boolean deleteAll = match == BOOKS && selection == null;
+        selection = getBooksTableSelection(selection);
+        List<String> thumbnails = new ArrayList<>();
+        BookStats.Delta delta = deleteAll ? null : new BookStats.Delta();
+        int rowsDeleted;
+        int suppliersDeleted;
+        mStats.beginWrite();
+        try {
+            database.beginTransaction();
+            SupplierResolver suppliers = new SupplierResolver(database);
+            try {
+                suppliers.readSuppliers(selection, selectionArgs);
+                if (!deleteAll) {
+                    String[] projection = {
+                            BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+                            BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM,
+                            BookEntry.COLUMN_BOOK_TYPE,
+                            BookEntry.COLUMN_BOOK_PRICE,
+                            BookEntry.COLUMN_BOOK_QUANTITY};
+                    Cursor cursor = database.query(BookEntry.TABLE_NAME, projection, selection,
+                            selectionArgs, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            thumbnails.add(cursor.getString(0));
+                            thumbnails.add(cursor.getString(1));
+                            delta.remove(new BookStats.Row(cursor.getInt(2), cursor.getLong(3),
+                                    cursor.getLong(4)));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                suppliersDeleted = suppliers.deleteUnusedSuppliers();
+                database.setTransactionSuccessful();
+            } finally {
+                suppliers.close();
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            delta = null;
+            throw e;
+        } finally {
+            endStatsWrite(delta);
+        }
+        removeCachedBooks(uri);
+
+        if (deleteAll) {
+            // Every book is gone, and so are all the thumbnails
+            ThumbnailStore.deleteAll(getContext());
+        } else {
+            for (String thumbnail : thumbnails) {
+                ThumbnailStore.delete(thumbnail);
+            }
+        }
+
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+        }
+        if (suppliersDeleted != 0) {
+            notifyChange(SupplierEntry.CONTENT_URI);
         }
 
         // Return the number of rows deleted
@@ -181,6 +743,16 @@ public class BookProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = mMetrics.start();
+        int rowsUpdated = update(match, uri, contentValues, selection, selectionArgs);
+        mMetrics.record(ProviderMetrics.UPDATE, match, start, rowsUpdated, uri, selection, selectionArgs);
+        return rowsUpdated;
+    }
+
+    /**
+     * Updates the data at the given URI, which the URI matcher matched to the given code.
+     */
+    private int update(int match, Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         switch (match) {
             case BOOKS:
                 return updateBook(uri, contentValues, selection, selectionArgs);
@@ -188,64 +760,250 @@ public class BookProvider extends ContentProvider {
                 // For the BOOK_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                long id = ContentUris.parseId(uri);
+
+                // A write of only the quantity or only the price runs a compiled statement
+                if (contentValues != null && contentValues.size() == 1) {
+                    long quantity = getLong(contentValues, BookEntry.COLUMN_BOOK_QUANTITY, MISSING);
+                    if (quantity != MISSING) {
+                        if (quantity < 0) {
+                            throw new IllegalArgumentException("Book requires valid quantity");
+                        }
+                        return updateBookColumn(uri, id, STATEMENT_UPDATE_QUANTITY, quantity);
+                    }
+                    long price = getLong(contentValues, BookEntry.COLUMN_BOOK_PRICE, MISSING);
+                    if (price != MISSING) {
+                        if (price < 0) {
+                            throw new IllegalArgumentException("Book requires valid price");
+                        }
+                        return updateBookColumn(uri, id, STATEMENT_UPDATE_PRICE, price);
+                    }
+                }
+
                 selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                selectionArgs = new String[]{String.valueOf(id)};
                 return updateBook(uri, contentValues, selection, selectionArgs);
+            case SUPPLIERS:
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
     /**
-     * Insert a book into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Insert a set of books in a single transaction. Every row is validated with the same rules
+     * as {@link #insertBook(Uri, ContentValues)} and written through a compiled statement, so
+     * a large catalogue costs one commit and one change notification instead of one per book.
+     * If any row is invalid the whole set is rolled back.
      */
-    private Uri insertBook(Uri uri, ContentValues values) {
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != BOOKS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        long start = mMetrics.start();
+        int rowsInserted = bulkInsertBooks(uri, values);
+        mMetrics.record(ProviderMetrics.BULK_INSERT, match, start, rowsInserted, uri, null, null);
+        return rowsInserted;
+    }
 
-        // Check that the title is not null
-        String name = values.getAsString(BookEntry.COLUMN_BOOK_TITLE);
-        if (name == null) {
-            throw new IllegalArgumentException("Book requires a title");
+    /**
+     * Insert a set of books in a single transaction, see {@link #bulkInsert(Uri, ContentValues[])}.
+     */
+    private int bulkInsertBooks(Uri uri, ContentValues[] values) {
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were inserted
+        int rowsInserted = 0;
+
+        BookStats.Delta delta = new BookStats.Delta();
+        mStats.beginWrite();
+        try {
+            SQLiteStatement statement = getStatement(database, STATEMENT_INSERT_BOOK);
+            database.beginTransaction();
+            SupplierResolver suppliers = new SupplierResolver(database);
+            try {
+                for (ContentValues bookValues : values) {
+                    validateBook(bookValues);
+                    // Rows with columns the compiled insert doesn't write, such as thumbnails,
+                    // are inserted as insertBook() does, so that none of their values is lost
+                    long id;
+                    if (hasOnlyInsertColumns(bookValues)) {
+                        bindBook(statement, bookValues, getSupplierId(suppliers, bookValues));
+                        id = statement.executeInsert();
+                    } else {
+                        id = database.insert(BookEntry.TABLE_NAME, null, suppliers.resolve(bookValues));
+                    }
+                    if (id == -1) {
+                        Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                    } else {
+                        rowsInserted++;
+                        delta.add(getStatsRow(bookValues));
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                suppliers.close();
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            delta = null;
+            throw e;
+        } finally {
+            endStatsWrite(delta);
         }
-        // No need to check the author, any value is valid (including null).
 
-        // Check that the type is valid
-        Integer type = values.getAsInteger(BookEntry.COLUMN_BOOK_TYPE);
-        if (type == null || !BookEntry.isValidType(type)) {
-            throw new IllegalArgumentException("Book requires valid type");
+        // Notify all listeners once for the whole set of books
+        if (rowsInserted != 0) {
+            notifyChange(uri);
         }
+        return rowsInserted;
+    }
 
-        // Check that the price is greater than or equal to 0
-        Integer price = values.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
-        if (price == null) {
-            throw new IllegalArgumentException("Book requires a price");
-        } else if (price < 0) {
-            throw new IllegalArgumentException("Book requires valid price");
+    /**
+     * Apply the given operations in a single transaction. Either all of them are committed or,
+     * if one fails, none are. Listeners are notified once, after the batch has been committed.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        boolean changed;
+        // The operations may be rolled back after they've run, so the totals are computed
+        // again rather than adjusted by each of them
+        mStats.beginWrite();
+        mBatchChanges.set(Boolean.FALSE);
+        try {
+            database.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            changed = mBatchChanges.get();
+            mBatchChanges.remove();
+            mStats.endWrite(null);
+            // Other threads may have cached books as they were before the commit
+            mBookCache.clear();
         }
 
-        // Check that the quantity is greater than or equal to 0
-        Integer quantity = values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
-        if (quantity == null) {
-            throw new IllegalArgumentException("Book requires a quantity");
-        } else if (quantity < 0) {
-            throw new IllegalArgumentException("Book requires valid quantity");
+        if (changed) {
+            notifyChange(BookEntry.CONTENT_URI);
+            notifyChange(SupplierEntry.CONTENT_URI);
         }
+        return results;
+    }
 
-        // No need to check the supplier, any value is valid (including null).
+    /**
+     * Call a provider-defined method. Supports {@link BookEntry#METHOD_SELL},
+     * {@link ReorderEntry#METHOD_SCAN} and {@link MetricsEntry#METHOD_SET_ENABLED}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (BookEntry.METHOD_SELL.equals(method)) {
+            long id;
+            try {
+                id = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Sale requires a book ID, got " + arg);
+            }
+            int quantity = extras == null ? 1 : extras.getInt(BookEntry.EXTRA_QUANTITY, 1);
 
-        // Check that the supplier's email is not null
-        String supplierEmail = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL);
-        if (supplierEmail == null) {
-            throw new IllegalArgumentException("Book requires a supplier's email");
+            Bundle result = new Bundle();
+            result.putInt(BookEntry.EXTRA_STOCK, sellBook(id, quantity));
+            return result;
         }
-        /////////////
-        // CHECK correct email??
-        /////////////
+        if (MetricsEntry.METHOD_SET_ENABLED.equals(method)) {
+            mMetrics.setEnabled(Boolean.parseBoolean(arg));
+            return null;
+        }
+        if (ReorderEntry.METHOD_SCAN.equals(method)) {
+            long watermark;
+            try {
+                watermark = arg == null ? 0 : Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Scan requires a watermark, got " + arg);
+            }
+            ReorderScanner.Result scan = ReorderScanner.scan(mDbHelper.getWritableDatabase(), watermark);
+            if (scan.mChanged) {
+                notifyChange(ReorderEntry.CONTENT_URI);
+            }
+
+            Bundle result = new Bundle();
+            result.putLong(ReorderEntry.EXTRA_WATERMARK, scan.mWatermark);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Print the metrics of the provider, see {@link MetricsEntry}, and those of its cache of
+     * books.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        mBookCache.dump(writer);
+    }
+
+    /**
+     * Insert a book into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertBook(Uri uri, ContentValues values) {
+        validateBook(values);
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Insert the new book with the given values
-        long id = database.insert(BookEntry.TABLE_NAME, null, values);
+        // The supplier is looked up, or added, in the transaction of the book. Values with only
+        // the columns of the compiled insert are bound to it rather than turned into SQL again.
+        long id = -1;
+        mStats.beginWrite();
+        try {
+            database.beginTransaction();
+            SupplierResolver suppliers = new SupplierResolver(database);
+            try {
+                if (hasOnlyInsertColumns(values)) {
+                    SQLiteStatement statement = getStatement(database, STATEMENT_INSERT_BOOK);
+                    bindBook(statement, values, getSupplierId(suppliers, values));
+                    try {
+                        id = statement.executeInsert();
+                    } catch (SQLException e) {
+                        // Fail as SQLiteDatabase#insert() does
+                        Log.e(LOG_TAG, "Error inserting " + values, e);
+                    }
+                } else {
+                    id = database.insert(BookEntry.TABLE_NAME, null, suppliers.resolve(values));
+                }
+                if (id != -1) {
+                    database.setTransactionSuccessful();
+                }
+            } finally {
+                suppliers.close();
+                database.endTransaction();
+            }
+        } finally {
+            BookStats.Delta delta = new BookStats.Delta();
+            if (id != -1) {
+                delta.add(getStatsRow(values));
+            }
+            endStatsWrite(delta);
+        }
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
@@ -253,10 +1011,12 @@ public class BookProvider extends ContentProvider {
             return null;
         }
 
-        // Notify all listeners that the data has changed for the book content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners that the data has changed for the URI of the new book, so that
+        // they can tell which book was added. Listeners of the book content URI get it too.
+        Uri bookUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(bookUri);
         // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        return bookUri;
     }
 
     /**
@@ -280,8 +1040,8 @@ public class BookProvider extends ContentProvider {
         // If the {@link BookEntry#COLUMN_BOOK_TYPE} key is present,
         // check that the type value is valid.
         if (values.containsKey(BookEntry.COLUMN_BOOK_TYPE)) {
-            Integer type = values.getAsInteger(BookEntry.COLUMN_BOOK_TYPE);
-            if (type == null || !BookEntry.isValidType(type)) {
+            long type = getLong(values, BookEntry.COLUMN_BOOK_TYPE, MISSING);
+            if (type == MISSING || !BookEntry.isValidType((int) type)) {
                 throw new IllegalArgumentException("Book requires valid type");
             }
         }
@@ -290,8 +1050,7 @@ public class BookProvider extends ContentProvider {
         // check that the price value is valid.
         if (values.containsKey(BookEntry.COLUMN_BOOK_PRICE)) {
             // Check that the price is greater than or equal to 0
-            Integer price = values.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
-            if (price != null && price < 0) {
+            if (getLong(values, BookEntry.COLUMN_BOOK_PRICE, 0) < 0) {
                 throw new IllegalArgumentException("Book requires valid price");
             }
         }
@@ -300,12 +1059,19 @@ public class BookProvider extends ContentProvider {
         // check that the quantity value is valid.
         if (values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
             // Check that the quantity is greater than or equal to 0
-            Integer quantity = values.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
-            if (quantity != null && quantity < 0) {
+            if (getLong(values, BookEntry.COLUMN_BOOK_QUANTITY, 0) < 0) {
                 throw new IllegalArgumentException("Book requires valid quantity");
             }
         }
 
+        // If the {@link BookEntry#COLUMN_BOOK_REORDER_THRESHOLD} key is present,
+        // check that the threshold is valid.
+        if (values.containsKey(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD)) {
+            if (getLong(values, BookEntry.COLUMN_BOOK_REORDER_THRESHOLD, MISSING) < 0) {
+                throw new IllegalArgumentException("Book requires valid reorder threshold");
+            }
+        }
+
         // No need to check the supplier, any value is valid (including null).
 
         // If the {@link BookEntry#COLUMN_BOOK_SUPPLIER_EMAIL} key is present,
@@ -325,19 +1091,587 @@ public class BookProvider extends ContentProvider {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        // The selection may name the supplier columns, which the books table doesn't have
+        selection = getBooksTableSelection(selection);
+
+        // Perform the update on the database and get the number of rows affected. When the
+        // update can change the totals of a single book, read the book before and after it.
+        // When it can change the supplier of the books, the suppliers they leave without books
+        // are deleted in the same transaction.
+        boolean supplierChanged = SupplierResolver.hasSupplierColumns(values);
+        int rowsUpdated;
+        int suppliersDeleted = 0;
+        if (values.containsKey(BookEntry.COLUMN_BOOK_TYPE)
+                || values.containsKey(BookEntry.COLUMN_BOOK_PRICE)
+                || values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
+            long id = sUriMatcher.match(uri) == BOOK_ID ? ContentUris.parseId(uri) : -1;
+            BookStats.Delta delta = null;
+            mStats.beginWrite();
+            try {
+                database.beginTransaction();
+                SupplierResolver suppliers = new SupplierResolver(database);
+                try {
+                    BookStats.Row oldRow = id == -1 ? null : BookStats.readRow(database, id);
+                    if (supplierChanged) {
+                        suppliers.readSuppliers(selection, selectionArgs);
+                    }
+                    rowsUpdated = database.update(BookEntry.TABLE_NAME, suppliers.resolve(values),
+                            selection, selectionArgs);
+                    if (supplierChanged) {
+                        suppliersDeleted = suppliers.deleteUnusedSuppliers();
+                    }
+                    if (id != -1) {
+                        delta = new BookStats.Delta();
+                        if (oldRow != null) {
+                            delta.remove(oldRow);
+                        }
+                        BookStats.Row newRow = BookStats.readRow(database, id);
+                        if (newRow != null) {
+                            delta.add(newRow);
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    suppliers.close();
+                    database.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                delta = null;
+                throw e;
+            } finally {
+                endStatsWrite(delta);
+            }
+        } else if (supplierChanged) {
+            // Look the new supplier up, or add it, in the transaction of the update
+            database.beginTransaction();
+            SupplierResolver suppliers = new SupplierResolver(database);
+            try {
+                suppliers.readSuppliers(selection, selectionArgs);
+                rowsUpdated = database.update(BookEntry.TABLE_NAME, suppliers.resolve(values),
+                        selection, selectionArgs);
+                suppliersDeleted = suppliers.deleteUnusedSuppliers();
+                database.setTransactionSuccessful();
+            } finally {
+                suppliers.close();
+                database.endTransaction();
+            }
+        } else {
+            rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        }
+        removeCachedBooks(uri);
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+        }
+        if (suppliersDeleted != 0) {
+            notifyChange(SupplierEntry.CONTENT_URI);
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
-}
 
+    /**
+     * Write a single column of a single book with one of the compiled updates, given by its
+     * index. The value has been validated. The totals are adjusted from the row read before the
+     * update, since only that column changes.
+     */
+    private int updateBookColumn(Uri uri, long id, int statementIndex, long value) {
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = getStatement(database, statementIndex);
+
+        int rowsUpdated = 0;
+        BookStats.Delta delta = new BookStats.Delta();
+        mStats.beginWrite();
+        try {
+            database.beginTransaction();
+            try {
+                BookStats.Row oldRow = BookStats.readRow(database, id);
+                if (oldRow != null) {
+                    statement.bindLong(1, value);
+                    statement.bindLong(2, id);
+                    rowsUpdated = statement.executeUpdateDelete();
+                    delta.remove(oldRow);
+                    if (statementIndex == STATEMENT_UPDATE_PRICE) {
+                        delta.add(new BookStats.Row(oldRow.mType, value, oldRow.mQuantity));
+                    } else {
+                        delta.add(new BookStats.Row(oldRow.mType, oldRow.mPrice, value));
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            delta = null;
+            throw e;
+        } finally {
+            endStatsWrite(delta);
+        }
+        mBookCache.remove(id);
+
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
 
+    /**
+     * Insert a supplier into the database with the given content values. Return the new content
+     * URI for that specific row in the database.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        // Check that the email is not null, as orders are sent to it
+        if (values.getAsString(SupplierEntry.COLUMN_SUPPLIER_EMAIL) == null) {
+            throw new IllegalArgumentException("Supplier requires an email");
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        Uri supplierUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(supplierUri);
+        return supplierUri;
+    }
+
+    /**
+     * Update suppliers in the database with the given content values. A single write changes
+     * the supplier of every book it supplies. Return the number of rows that were successfully
+     * updated.
+     */
+    private int updateSupplier(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // If the email is present, check that it is not null
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_EMAIL)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_EMAIL) == null) {
+            throw new IllegalArgumentException("Supplier requires an email");
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            // The books show their supplier too
+            mBookCache.clear();
+            notifyChange(uri);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the suppliers given by the URI, selection and selection arguments. A supplier can't
+     * be deleted while it still has books: the foreign key of the books makes the deletion fail
+     * with a {@link android.database.sqlite.SQLiteConstraintException}.
+     */
+    private int deleteSupplier(Uri uri, String selection, String[] selectionArgs) {
+        if (sUriMatcher.match(uri) == SUPPLIER_ID) {
+            selection = SupplierEntry._ID + "=?";
+            selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(uri);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Sell the given number of copies of a book. The stock is decremented by the database
+     * itself, so taps that arrive faster than the list refreshes are all counted, and the sale
+     * is recorded in the ledger in the same transaction. Return the quantity left in stock, or
+     * -1 if the book doesn't exist or has too few copies.
+     */
+    private int sellBook(long id, int quantity) {
+        // Check that the quantity sold is greater than 0
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Sale requires a positive quantity");
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long stock = -1;
+        BookStats.Delta delta = new BookStats.Delta();
+        mStats.beginWrite();
+        try {
+            database.beginTransaction();
+            try {
+                SQLiteStatement statement = getStatement(database, STATEMENT_SELL_BOOK);
+                statement.bindLong(1, quantity);
+                statement.bindLong(2, id);
+                statement.bindLong(3, quantity);
+                if (statement.executeUpdateDelete() != 0) {
+                    // Only the quantity has changed, and the row holds what's left of it
+                    BookStats.Row row = BookStats.readRow(database, id);
+                    stock = row.mQuantity;
+                    delta.remove(new BookStats.Row(row.mType, row.mPrice, stock + quantity));
+                    delta.add(row);
+                    insertSale(database, id, quantity);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            delta = null;
+            throw e;
+        } finally {
+            endStatsWrite(delta);
+        }
+
+        // Only the sold book has changed, so only notify listeners of that book and of the sales
+        if (stock != -1) {
+            mBookCache.remove(id);
+            notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id));
+            notifyChange(SaleEntry.CONTENT_URI);
+        }
+        return (int) stock;
+    }
+
+    /**
+     * Record a sale of the given book in the ledger, timed now.
+     */
+    private void insertSale(SQLiteDatabase database, long bookId, int quantity) {
+        SQLiteStatement statement = getStatement(database, STATEMENT_INSERT_SALE);
+        statement.bindLong(1, bookId);
+        statement.bindLong(2, quantity);
+        statement.bindLong(3, System.currentTimeMillis());
+        statement.executeInsert();
+    }
+
+    /**
+     * Returns the rollup of the sales a summary is read from: the daily one summed over the days
+     * given by the days query parameter, or the one by book when there is no such parameter.
+     */
+    private static String buildSoldTable(Uri uri) {
+        if (uri.getQueryParameter(BookContract.QUERY_PARAMETER_DAYS) == null) {
+            return BookDbHelper.SALES_TOTALS_TABLE_NAME;
+        }
+        long days = parseQueryParameter(uri, BookContract.QUERY_PARAMETER_DAYS);
+        if (days == 0) {
+            throw new IllegalArgumentException("Invalid " + BookContract.QUERY_PARAMETER_DAYS
+                    + " parameter for " + uri);
+        }
+        long firstDay = System.currentTimeMillis() / SaleEntry.DAY_MILLIS - days + 1;
+        return "(SELECT " + SaleEntry.COLUMN_SALE_BOOK_ID + ", "
+                + "SUM(" + SaleEntry.COLUMN_SALE_QUANTITY + ") AS " + SaleEntry.COLUMN_SALE_QUANTITY
+                + " FROM " + BookDbHelper.SALES_DAILY_TABLE_NAME
+                + " WHERE " + BookDbHelper.COLUMN_SALES_DAY + " >= " + firstDay
+                + " GROUP BY " + SaleEntry.COLUMN_SALE_BOOK_ID + ")";
+    }
+
+    /**
+     * Returns what to query the books from: the books table, or the view of the books joined
+     * with their supplier when the query names a supplier column. The catalogue only reads
+     * columns of the books table, so its rows never carry the supplier.
+     * <p>
+     * The pages of the catalogue are left to the planner, which reads them from the covering
+     * index of the list, see {@link BookDbHelper#LIST_INDEX_NAME}.
+     */
+    private static String getBooksTable(String[] projection, String selection, String sortOrder) {
+        if (projection == null || mentionsSupplier(selection) || mentionsSupplier(sortOrder)) {
+            return BookDbHelper.BOOKS_VIEW_NAME;
+        }
+        for (String column : projection) {
+            if (mentionsSupplier(column)) {
+                return BookDbHelper.BOOKS_VIEW_NAME;
+            }
+        }
+        return BookEntry.TABLE_NAME;
+    }
+
+    /**
+     * Returns a selection of the books table that selects the same books as the given selection
+     * of the books, which may name the supplier columns.
+     */
+    private static String getBooksTableSelection(String selection) {
+        if (!mentionsSupplier(selection)) {
+            return selection;
+        }
+        return BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM "
+                + BookDbHelper.BOOKS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Returns whether the given part of a query may name one of the supplier columns of the
+     * books. The names of all of them contain {@link BookEntry#COLUMN_BOOK_SUPPLIER}.
+     */
+    private static boolean mentionsSupplier(String sql) {
+        return sql != null && sql.contains(BookEntry.COLUMN_BOOK_SUPPLIER);
+    }
 
+    /**
+     * Returns the ID of the supplier of validated new book values, given either by its ID or by
+     * its name, phone and email.
+     */
+    private static long getSupplierId(SupplierResolver suppliers, ContentValues values) {
+        long supplierId = getLong(values, BookEntry.COLUMN_BOOK_SUPPLIER_ID, MISSING);
+        if (supplierId != MISSING) {
+            return supplierId;
+        }
+        return suppliers.getSupplierId(values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER),
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE),
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL));
+    }
+
+    /**
+     * Returns the values of a validated new book that the totals depend on.
+     */
+    private static BookStats.Row getStatsRow(ContentValues values) {
+        return new BookStats.Row((int) getLong(values, BookEntry.COLUMN_BOOK_TYPE, MISSING),
+                getLong(values, BookEntry.COLUMN_BOOK_PRICE, MISSING),
+                getLong(values, BookEntry.COLUMN_BOOK_QUANTITY, MISSING));
+    }
+
+    /**
+     * Returns the value of a numeric column of the given values, or the given default if it's
+     * missing or not a number. Unlike {@link ContentValues#getAsInteger(String)} the value is
+     * read as it was put, without boxing it again, so validating and binding a book doesn't
+     * allocate.
+     */
+    private static long getLong(ContentValues values, String key, long defaultValue) {
+        Object value = values.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                // Handled as a missing value
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns whether the given values only have columns that {@link #SQL_INSERT_BOOK} writes.
+     */
+    private static boolean hasOnlyInsertColumns(ContentValues values) {
+        int columns = 0;
+        for (String column : INSERT_COLUMNS) {
+            if (values.containsKey(column)) {
+                columns++;
+            }
+        }
+        return columns == values.size();
+    }
+
+    /**
+     * Returns the statement of the given index of {@link #STATEMENT_SQL} for the current thread,
+     * compiling it the first time it is used on the given database.
+     */
+    private SQLiteStatement getStatement(SQLiteDatabase database, int index) {
+        Statements statements = mStatements.get();
+        if (statements == null || statements.mDatabase != database) {
+            if (statements != null) {
+                closeStatements(statements);
+            }
+            statements = new Statements(database);
+            mStatements.set(statements);
+        }
+        SQLiteStatement statement = statements.mStatements[index];
+        if (statement == null) {
+            statement = database.compileStatement(STATEMENT_SQL[index]);
+            statements.mStatements[index] = statement;
+            synchronized (mOpenStatements) {
+                mOpenStatements.add(statement);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Close the given statements of the current thread, unless {@link #shutdown()} already has.
+     */
+    private void closeStatements(Statements statements) {
+        synchronized (mOpenStatements) {
+            for (SQLiteStatement statement : statements.mStatements) {
+                if (statement != null && mOpenStatements.remove(statement)) {
+                    statement.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the books written through the given URI from the cache, once the write has
+     * committed: the book of the URI, or every book if the URI is for several of them.
+     */
+    private void removeCachedBooks(Uri uri) {
+        if (sUriMatcher.match(uri) == BOOK_ID) {
+            mBookCache.remove(ContentUris.parseId(uri));
+        } else {
+            mBookCache.clear();
+        }
+    }
+
+    /**
+     * End a write of the totals, see {@link BookStats#endWrite(BookStats.Delta)}. Inside
+     * {@link #applyBatch(ArrayList)} the totals are computed again after the batch instead.
+     */
+    private void endStatsWrite(BookStats.Delta delta) {
+        mStats.endWrite(mBatchChanges.get() == null ? delta : null);
+    }
+
+    /**
+     * Check that the given content values describe a valid new book. Throws an
+     * {@link IllegalArgumentException} describing the first problem found.
+     */
+    static void validateBook(ContentValues values) {
+        // Check that the title is not null
+        String name = values.getAsString(BookEntry.COLUMN_BOOK_TITLE);
+        if (name == null) {
+            throw new IllegalArgumentException("Book requires a title");
+        }
+        // No need to check the author, any value is valid (including null).
+
+        // Check that the type is valid
+        long type = getLong(values, BookEntry.COLUMN_BOOK_TYPE, MISSING);
+        if (type == MISSING || !BookEntry.isValidType((int) type)) {
+            throw new IllegalArgumentException("Book requires valid type");
+        }
+
+        // Check that the price is greater than or equal to 0
+        long price = getLong(values, BookEntry.COLUMN_BOOK_PRICE, MISSING);
+        if (price == MISSING) {
+            throw new IllegalArgumentException("Book requires a price");
+        } else if (price < 0) {
+            throw new IllegalArgumentException("Book requires valid price");
+        }
+
+        // Check that the quantity is greater than or equal to 0
+        long quantity = getLong(values, BookEntry.COLUMN_BOOK_QUANTITY, MISSING);
+        if (quantity == MISSING) {
+            throw new IllegalArgumentException("Book requires a quantity");
+        } else if (quantity < 0) {
+            throw new IllegalArgumentException("Book requires valid quantity");
+        }
+
+        // Check that the reorder threshold, if any, is greater than or equal to 0
+        if (values.containsKey(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD)
+                && getLong(values, BookEntry.COLUMN_BOOK_REORDER_THRESHOLD, MISSING) < 0) {
+            throw new IllegalArgumentException("Book requires valid reorder threshold");
+        }
+
+        // No need to check the supplier, any value is valid (including null).
+
+        // Check that the supplier's email is not null, unless the supplier is given by its ID
+        if (values.get(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL) == null
+                && getLong(values, BookEntry.COLUMN_BOOK_SUPPLIER_ID, MISSING) == MISSING) {
+            throw new IllegalArgumentException("Book requires a supplier's email");
+        }
+        /////////////
+        // CHECK correct email??
+        /////////////
+    }
+
+    /**
+     * Turn the text typed by the user into a full-text query that matches every word as a
+     * prefix, e.g. "orw 198" becomes "orw* 198*". Return null if there is no word to search for.
+     */
+    static String buildMatchQuery(String query) {
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Build the LIMIT clause for the limit and offset query parameters of the given URI, or
+     * return null if the URI doesn't ask for a limit.
+     */
+    private static String buildLimit(Uri uri) {
+        if (uri.getQueryParameter(BookContract.QUERY_PARAMETER_LIMIT) == null) {
+            return null;
+        }
+        long limit = parseQueryParameter(uri, BookContract.QUERY_PARAMETER_LIMIT);
+        if (uri.getQueryParameter(BookContract.QUERY_PARAMETER_OFFSET) == null) {
+            return String.valueOf(limit);
+        }
+        long offset = parseQueryParameter(uri, BookContract.QUERY_PARAMETER_OFFSET);
+        return offset + "," + limit;
+    }
+
+    /**
+     * Return the value of a numeric query parameter, which must not be negative.
+     */
+    private static long parseQueryParameter(Uri uri, String name) {
+        try {
+            long value = Long.parseLong(uri.getQueryParameter(name));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        throw new IllegalArgumentException("Invalid " + name + " parameter for " + uri);
+    }
+
+    /**
+     * Bind already validated book values and the ID of their supplier to the parameters of
+     * {@link #SQL_INSERT_BOOK}.
+     */
+    private static void bindBook(SQLiteStatement statement, ContentValues values, long supplierId) {
+        statement.clearBindings();
+        bindStringOrNull(statement, 1, values.getAsString(BookEntry.COLUMN_BOOK_TITLE));
+        bindStringOrNull(statement, 2, values.getAsString(BookEntry.COLUMN_BOOK_AUTHOR));
+        statement.bindLong(3, getLong(values, BookEntry.COLUMN_BOOK_TYPE, MISSING));
+        statement.bindLong(4, getLong(values, BookEntry.COLUMN_BOOK_PRICE, MISSING));
+        statement.bindLong(5, getLong(values, BookEntry.COLUMN_BOOK_QUANTITY, MISSING));
+        statement.bindLong(6, supplierId);
+        bindStringOrNull(statement, 7, values.getAsString(BookEntry.COLUMN_BOOK_IMAGE));
+        statement.bindLong(8, getLong(values, BookEntry.COLUMN_BOOK_REORDER_THRESHOLD,
+                BookEntry.LOW_STOCK_QUANTITY));
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. While a batch is being
+     * applied the notification is deferred until the batch commits.
+     * <p>
+     * Changes to a single book, including its insertion, are notified with the URI of the book,
+     * and changes to any other set of books with the book content URI. The catalogue relies on
+     * it to only read again the books that changed.
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchChanges.get() != null) {
+            mBatchChanges.set(Boolean.TRUE);
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+/**
+ * Totals of the books table served by {@link BookEntry#STATS_URI}. They are computed with a
+ * single aggregate query the first time they're asked for, then kept in memory and adjusted by
+ * every write that changes a book's type, price or quantity, so they're never recomputed while
+ * the provider can account for the changes.
+ * <p>
+ * A write calls {@link #beginWrite()} before changing the table, then {@link #endWrite(Delta)}
+ * with the books it removed and added once it has been committed, or with null when its effect
+ * is unknown. Totals computed while a write is in progress are returned but not cached, as they
+ * may or may not include that write.
+ */
+class BookStats {
+
+    /**
+     * Book values the totals depend on
+     */
+    static class Row {
+        final int mType;
+        final long mPrice;
+        final long mQuantity;
+
+        Row(int type, long price, long quantity) {
+            mType = type;
+            mPrice = price;
+            mQuantity = quantity;
+        }
+    }
+
+    /**
+     * Change to the totals made by a write
+     */
+    static class Delta {
+        private final long[] mTotals = new long[BookEntry.STATS_COLUMNS.length];
+
+        /**
+         * Account for a book added by the write, or for the new values of an updated book.
+         */
+        void add(Row row) {
+            apply(mTotals, row, 1);
+        }
+
+        /**
+         * Account for a book removed by the write, or for the old values of an updated book.
+         */
+        void remove(Row row) {
+            apply(mTotals, row, -1);
+        }
+    }
+
+    private static final String SQL_QUERY_TOTALS = "SELECT "
+            + BookEntry.COLUMN_BOOK_TYPE + ", "
+            + "COUNT(*), "
+            + "SUM(" + BookEntry.COLUMN_BOOK_QUANTITY + "), "
+            + "SUM(" + BookEntry.COLUMN_BOOK_PRICE + " * " + BookEntry.COLUMN_BOOK_QUANTITY + "), "
+            + "SUM(" + BookEntry.COLUMN_BOOK_QUANTITY + " <= " + BookEntry.LOW_STOCK_QUANTITY + ")"
+            + " FROM " + BookEntry.TABLE_NAME
+            + " GROUP BY " + BookEntry.COLUMN_BOOK_TYPE;
+
+    private static final String SQL_QUERY_ROW = "SELECT "
+            + BookEntry.COLUMN_BOOK_TYPE + ", "
+            + BookEntry.COLUMN_BOOK_PRICE + ", "
+            + BookEntry.COLUMN_BOOK_QUANTITY
+            + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ?";
+
+    // Indexes of the totals, in the order of BookEntry.STATS_COLUMNS
+    private static final int BOOK_COUNT = 0;
+    private static final int ITEMS_IN_STOCK = 1;
+    private static final int STOCK_VALUE = 2;
+    private static final int LOW_STOCK_COUNT = 3;
+    private static final int UNKNOWN_COUNT = 4;
+    private static final int NOVEL_COUNT = 5;
+    private static final int TECHNICAL_COUNT = 6;
+
+    // The fields below are guarded by mLock.
+    private final Object mLock = new Object();
+    /**
+     * Cached totals, or null if they need to be computed
+     */
+    private long[] mTotals;
+    /**
+     * Number of writes in progress
+     */
+    private int mPendingWrites;
+    /**
+     * Incremented by every write, so that totals computed across a write aren't cached
+     */
+    private int mVersion;
+
+    /**
+     * Returns a single-row cursor with the totals, in the columns of
+     * {@link BookEntry#STATS_COLUMNS}.
+     */
+    Cursor query(SQLiteDatabase database, String[] projection) {
+        long[] totals;
+        int version;
+        synchronized (mLock) {
+            totals = mTotals == null ? null : mTotals.clone();
+            version = mPendingWrites == 0 ? mVersion : -1;
+        }
+
+        if (totals == null) {
+            totals = compute(database);
+            synchronized (mLock) {
+                if (version != -1 && version == mVersion && mPendingWrites == 0) {
+                    mTotals = totals.clone();
+                }
+            }
+        }
+
+        if (projection == null) {
+            projection = BookEntry.STATS_COLUMNS;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            row[i] = totals[indexOf(projection[i])];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Called before a write that may change the totals.
+     */
+    void beginWrite() {
+        synchronized (mLock) {
+            mPendingWrites++;
+            mVersion++;
+        }
+    }
+
+    /**
+     * Called after a write, whether it succeeded or not.
+     *
+     * @param delta change made to the totals by the write, or null if it is unknown, in which
+     *              case the totals are computed again the next time they're asked for
+     */
+    void endWrite(Delta delta) {
+        synchronized (mLock) {
+            mPendingWrites--;
+            if (delta == null) {
+                mTotals = null;
+            } else if (mTotals != null) {
+                for (int i = 0; i < mTotals.length; i++) {
+                    mTotals[i] += delta.mTotals[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the values of the given book, or return null if it doesn't exist.
+     */
+    static Row readRow(SQLiteDatabase database, long id) {
+        Cursor cursor = database.rawQuery(SQL_QUERY_ROW, new String[]{String.valueOf(id)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Row(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long[] compute(SQLiteDatabase database) {
+        long[] totals = new long[BookEntry.STATS_COLUMNS.length];
+        Cursor cursor = database.rawQuery(SQL_QUERY_TOTALS, null);
+        try {
+            while (cursor.moveToNext()) {
+                long count = cursor.getLong(1);
+                totals[BOOK_COUNT] += count;
+                totals[ITEMS_IN_STOCK] += cursor.getLong(2);
+                totals[STOCK_VALUE] += cursor.getLong(3);
+                totals[LOW_STOCK_COUNT] += cursor.getLong(4);
+                int typeIndex = indexOfType(cursor.getInt(0));
+                if (typeIndex != -1) {
+                    totals[typeIndex] += count;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return totals;
+    }
+
+    /**
+     * Add the given book to the totals, or remove it if the sign is -1.
+     */
+    private static void apply(long[] totals, Row row, int sign) {
+        totals[BOOK_COUNT] += sign;
+        totals[ITEMS_IN_STOCK] += sign * row.mQuantity;
+        totals[STOCK_VALUE] += sign * row.mPrice * row.mQuantity;
+        if (row.mQuantity <= BookEntry.LOW_STOCK_QUANTITY) {
+            totals[LOW_STOCK_COUNT] += sign;
+        }
+        int typeIndex = indexOfType(row.mType);
+        if (typeIndex != -1) {
+            totals[typeIndex] += sign;
+        }
+    }
+
+    private static int indexOfType(int type) {
+        switch (type) {
+            case BookEntry.TYPE_UNKNOWN:
+                return UNKNOWN_COUNT;
+            case BookEntry.TYPE_NOVEL:
+                return NOVEL_COUNT;
+            case BookEntry.TYPE_TECHNICAL:
+                return TECHNICAL_COUNT;
+            default:
+                return -1;
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < BookEntry.STATS_COLUMNS.length; i++) {
+            if (BookEntry.STATS_COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown stats column " + column);
+    }
+}
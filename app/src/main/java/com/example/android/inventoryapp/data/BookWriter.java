@@ -0,0 +1,244 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes to the {@link BookProvider} on a single background thread, so that no write reaches
+ * the disk from the main thread. Writes run one at a time in the order they were made, and
+ * their callbacks are called on the main thread.
+ * <p>
+ * Updates of a URI that are still waiting for their turn are merged into a single update, so a
+ * burst of edits of the same book only costs one write. Sales are never merged, as each one
+ * must be checked against the stock.
+ */
+public class BookWriter {
+
+    /**
+     * Callback for the result of a write. Always called on the main thread.
+     */
+    public interface Callback<T> {
+        void onWriteComplete(T result);
+    }
+
+    public static final String LOG_TAG = BookWriter.class.getSimpleName();
+
+    private static BookWriter sInstance;
+
+    private final ContentResolver mResolver;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Updates waiting to run, by URI. Guarded by itself.
+     */
+    private final Map<Uri, PendingUpdate> mPendingUpdates = new HashMap<>();
+
+    private BookWriter(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the writer of the app.
+     */
+    public static synchronized BookWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a book. The callback gets the URI of the new book, or null if it couldn't be
+     * inserted.
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback<Uri> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mResolver.insert(uri, values);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to insert into " + uri, e);
+                }
+                post(callback, newUri);
+            }
+        });
+    }
+
+    /**
+     * Insert the given book, see {@link #insert(Uri, ContentValues, Callback)}.
+     */
+    public void insert(Book book, Callback<Uri> callback) {
+        insert(BookEntry.CONTENT_URI, BookMapper.toValues(book), callback);
+    }
+
+    /**
+     * Update the books at the given URI. If an update of the same URI is still waiting, the
+     * values are merged into it, the later values winning. The callback gets the number of rows
+     * updated.
+     */
+    public void update(final Uri uri, ContentValues values, Callback<Integer> callback) {
+        final PendingUpdate update;
+        synchronized (mPendingUpdates) {
+            PendingUpdate pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                pending.mValues.putAll(values);
+                pending.mCallbacks.add(callback);
+                return;
+            }
+            update = new PendingUpdate(new ContentValues(values), callback);
+            mPendingUpdates.put(uri, update);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Take the update, so that no more values are merged into it
+                synchronized (mPendingUpdates) {
+                    mPendingUpdates.remove(uri);
+                }
+
+                int rowsUpdated = 0;
+                try {
+                    rowsUpdated = mResolver.update(uri, update.mValues, null, null);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to update " + uri, e);
+                }
+                for (Callback<Integer> callback : update.mCallbacks) {
+                    post(callback, rowsUpdated);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete the books at the given URI that match the selection. The callback gets the number
+     * of rows deleted.
+     */
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowsDeleted = 0;
+                try {
+                    rowsDeleted = mResolver.delete(uri, selection, selectionArgs);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to delete " + uri, e);
+                }
+                post(callback, rowsDeleted);
+            }
+        });
+    }
+
+    /**
+     * Sell copies of a book, see {@link BookEntry#METHOD_SELL}. The callback gets the stock
+     * left, or -1 if the book doesn't have enough copies.
+     */
+    public void sell(final long bookId, final int quantity, final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int stock = -1;
+                Bundle extras = new Bundle();
+                extras.putInt(BookEntry.EXTRA_QUANTITY, quantity);
+                try {
+                    Bundle result = mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL,
+                            String.valueOf(bookId), extras);
+                    if (result != null) {
+                        stock = result.getInt(BookEntry.EXTRA_STOCK, -1);
+                    }
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to sell book " + bookId, e);
+                }
+                post(callback, stock);
+            }
+        });
+    }
+
+    /**
+     * Import the books of a CSV or TSV file, see {@link BookImporter}. The listener is called on
+     * the main thread as the import goes. The callback gets the outcome of the import, or null
+     * if the file couldn't be read.
+     */
+    public void importBooks(final Uri source, final BookImporter.Listener listener,
+                            final Callback<BookImporter.Result> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BookImporter importer = new BookImporter(mResolver, new BookImporter.Listener() {
+                    @Override
+                    public void onProgress(final int rowsRead, final int rowsImported) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onProgress(rowsRead, rowsImported);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onRowError(final int line, final String message) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onRowError(line, message);
+                            }
+                        });
+                    }
+                });
+
+                BookImporter.Result result = null;
+                try {
+                    result = importer.importBooks(source);
+                } catch (IOException | SecurityException e) {
+                    Log.e(LOG_TAG, "Failed to import " + source, e);
+                }
+                post(callback, result);
+            }
+        });
+    }
+
+    private <T> void post(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteComplete(result);
+            }
+        });
+    }
+
+    /**
+     * Update waiting for its turn, with the callbacks of all the updates merged into it.
+     */
+    private static class PendingUpdate {
+        final ContentValues mValues;
+        final List<Callback<Integer>> mCallbacks = new ArrayList<>();
+
+        PendingUpdate(ContentValues values, Callback<Integer> callback) {
+            mValues = values;
+            mCallbacks.add(callback);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.inventoryapp.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads the records of a CSV or TSV file one at a time. Fields may be quoted with double quotes,
+ * in which case they can hold delimiters, line breaks and doubled quotes. Only one record is held
+ * in memory, so files of any size can be read.
+ */
+class CsvReader {
+
+    private final Reader mReader;
+    private final char mDelimiter;
+    /**
+     * Builds the field being read, reused for every field
+     */
+    private final StringBuilder mField = new StringBuilder();
+    /**
+     * Character read ahead of the record, or -2 if none
+     */
+    private int mPeeked = -2;
+    /**
+     * Line of the file the last record started on, counting from 1
+     */
+    private int mRecordLine;
+    private int mLine = 1;
+
+    /**
+     * @param reader    to read the file from, which should be buffered
+     * @param delimiter between the fields, ',' for CSV or '\t' for TSV
+     */
+    CsvReader(Reader reader, char delimiter) {
+        mReader = reader;
+        mDelimiter = delimiter;
+    }
+
+    /**
+     * Read the next record into the given list, replacing its content. Returns false at the end
+     * of the file.
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+        mRecordLine = mLine;
+
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        mField.setLength(0);
+        while (true) {
+            if (c == '\r' || c == '\n') {
+                // Count the line break, treating \r\n as a single one
+                if (c == '\r') {
+                    int next = read();
+                    if (next == '\n') {
+                        if (quoted) {
+                            mField.append('\r');
+                        }
+                        c = next;
+                    } else {
+                        mPeeked = next;
+                    }
+                }
+                mLine++;
+                if (!quoted) {
+                    fields.add(mField.toString());
+                    return true;
+                }
+                mField.append((char) c);
+            } else if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field on line " + mRecordLine);
+                } else if (c == '"') {
+                    int next = read();
+                    if (next != '"') {
+                        // End of the quoted part, go on with the character after it
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                    // A doubled quote stands for one quote
+                    mField.append('"');
+                } else {
+                    mField.append((char) c);
+                }
+            } else if (c == -1) {
+                // The last record has no line break
+                fields.add(mField.toString());
+                return true;
+            } else if (c == '"' && mField.length() == 0 && !wasQuoted) {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == mDelimiter) {
+                fields.add(mField.toString());
+                mField.setLength(0);
+                wasQuoted = false;
+            } else {
+                mField.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Returns the line the last record read started on, counting from 1.
+     */
+    int getRecordLine() {
+        return mRecordLine;
+    }
+
+    private int read() throws IOException {
+        if (mPeeked != -2) {
+            int c = mPeeked;
+            mPeeked = -2;
+            return c;
+        }
+        return mReader.read();
+    }
+}
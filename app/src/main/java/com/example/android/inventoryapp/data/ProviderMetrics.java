@@ -0,0 +1,458 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.SparseArray;
+
+import com.example.android.inventoryapp.data.BookContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Metrics of the operations of the {@link BookProvider}, for each operation and URI pattern:
+ * a histogram of the latencies, the rows returned or changed and, for queries, how the rows
+ * filled the first cursor window. The slowest operations are sampled with their selection and
+ * arguments.
+ * <p>
+ * Recording never takes a lock: every series is created up front and only updated with atomic
+ * operations, so the binder threads of the provider never wait on each other. When the metrics
+ * are off, an operation costs a read of a volatile field and no allocation.
+ */
+class ProviderMetrics {
+
+    // Operations of the provider that are measured
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int BULK_INSERT = 4;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete", "bulkInsert"};
+
+    /**
+     * Value of {@link #start()} when the metrics are off
+     */
+    static final long NOT_STARTED = Long.MIN_VALUE;
+
+    /**
+     * Operations that take longer than this are sampled, in nanoseconds
+     */
+    private static final long SLOW_NANOS = 50 * 1000 * 1000;
+    /**
+     * Number of slow operations kept, the oldest being replaced first
+     */
+    private static final int SLOW_SAMPLES = 16;
+
+    /**
+     * A log-linear histogram of latencies in nanoseconds, in the manner of HdrHistogram. Each
+     * power of two is split in {@link #SUB_BUCKETS} buckets, so a value is known within 12.5%.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /**
+         * Values from 2^40 ns, about 18 minutes, go in the last bucket
+         */
+        private static final int MAX_BIT = 40;
+        private static final int BUCKETS = (MAX_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotal = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value) {
+            mCounts.incrementAndGet(getIndex(value));
+            mCount.incrementAndGet();
+            mTotal.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotal.get() / count;
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Returns the highest value of the bucket holding the given percentile of the values.
+         */
+        long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += mCounts.get(i);
+                if (seen >= rank) {
+                    return Math.min(getLowestValue(i + 1) - 1, mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        private static int getIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(value, 0);
+            }
+            int bit = 63 - Long.numberOfLeadingZeros(value);
+            if (bit > MAX_BIT) {
+                return BUCKETS - 1;
+            }
+            int shift = bit - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        private static long getLowestValue(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        }
+    }
+
+    /**
+     * Metrics of an operation on a URI pattern
+     */
+    private static final class Series {
+        final String mName;
+        final Histogram mLatency = new Histogram();
+        final AtomicLong mRows = new AtomicLong();
+        final AtomicLong mWindowRows = new AtomicLong();
+        final AtomicLong mWindowOverflows = new AtomicLong();
+
+        Series(String name) {
+            mName = name;
+        }
+    }
+
+    /**
+     * A slow operation
+     */
+    private static final class Sample {
+        final String mName;
+        final long mNanos;
+        final long mTime;
+        final Uri mUri;
+        final String mSelection;
+        final String[] mSelectionArgs;
+        final String mSortOrder;
+
+        Sample(String name, long nanos, Uri uri, String selection, String[] selectionArgs,
+               String sortOrder) {
+            mName = name;
+            mNanos = nanos;
+            mTime = System.currentTimeMillis();
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+        }
+    }
+
+    private volatile boolean mEnabled;
+
+    /**
+     * Series by {@link #getKey(int, int)}. Only read once created, so it needs no lock.
+     */
+    private final SparseArray<Series> mSeries = new SparseArray<>();
+    private final AtomicReferenceArray<Sample> mSlowSamples = new AtomicReferenceArray<>(SLOW_SAMPLES);
+    private final AtomicInteger mNextSlowSample = new AtomicInteger();
+
+    /**
+     * @param patterns the URI patterns of the provider, by URI matcher code
+     * @param enabled  whether to record the metrics from the start
+     */
+    ProviderMetrics(SparseArray<String> patterns, boolean enabled) {
+        for (int i = 0; i < patterns.size(); i++) {
+            for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+                mSeries.put(getKey(operation, patterns.keyAt(i)),
+                        new Series(OPERATION_NAMES[operation] + " " + patterns.valueAt(i)));
+            }
+        }
+        mEnabled = enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns the start time of an operation, or {@link #NOT_STARTED} if the metrics are off.
+     */
+    long start() {
+        return mEnabled ? System.nanoTime() : NOT_STARTED;
+    }
+
+    /**
+     * Record an operation started at the given time, which changed the given number of rows.
+     */
+    void record(int operation, int match, long start, int rows, Uri uri, String selection,
+                String[] selectionArgs) {
+        if (start == NOT_STARTED) {
+            return;
+        }
+        Series series = end(operation, match, start, uri, selection, selectionArgs, null);
+        if (series != null) {
+            series.mRows.addAndGet(rows);
+        }
+    }
+
+    /**
+     * Returns the cursor of a query started at the given time, wrapped so that the query is
+     * recorded when the caller first fills the cursor. Its latency then includes running the
+     * query rather than only preparing it, without the provider filling the cursor itself to
+     * count its rows. A cursor closed before being filled is recorded without rows.
+     */
+    Cursor recordQuery(int match, long start, Cursor cursor, Uri uri, String selection,
+                       String[] selectionArgs, String sortOrder) {
+        if (start == NOT_STARTED || cursor == null) {
+            return cursor;
+        }
+        return new RecordingCursor(cursor, match, start, uri, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Record a query started at the given time, whose rows are those of the given filled
+     * cursor, or none if it is null.
+     */
+    private void endQuery(int match, long start, Cursor cursor, Uri uri, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        Series series = end(QUERY, match, start, uri, selection, selectionArgs, sortOrder);
+        if (series == null || cursor == null) {
+            return;
+        }
+        int rows = cursor.getCount();
+        series.mRows.addAndGet(rows);
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null) {
+                series.mWindowRows.addAndGet(window.getNumRows());
+                if (window.getNumRows() < rows) {
+                    series.mWindowOverflows.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cursor of a query, which records the query once the caller has filled it. It stays a
+     * {@link android.database.CrossProcessCursor}, so a cursor sent to another process is still
+     * copied a window at a time.
+     */
+    private final class RecordingCursor extends CrossProcessCursorWrapper {
+        private final int mMatch;
+        private final long mStart;
+        private final Uri mUri;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private boolean mRecorded;
+
+        RecordingCursor(Cursor cursor, int match, long start, Uri uri, String selection,
+                        String[] selectionArgs, String sortOrder) {
+            super(cursor);
+            mMatch = match;
+            mStart = start;
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+        }
+
+        /**
+         * Record the query the first time it is called, with the rows of the cursor if the
+         * caller has filled it.
+         */
+        private void record(boolean filled) {
+            if (mRecorded) {
+                return;
+            }
+            mRecorded = true;
+            endQuery(mMatch, mStart, filled ? getWrappedCursor() : null, mUri, mSelection,
+                    mSelectionArgs, mSortOrder);
+        }
+
+        @Override
+        public int getCount() {
+            int count = super.getCount();
+            record(true);
+            return count;
+        }
+
+        @Override
+        public boolean move(int offset) {
+            boolean moved = super.move(offset);
+            record(true);
+            return moved;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            boolean moved = super.moveToPosition(position);
+            record(true);
+            return moved;
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            boolean moved = super.moveToFirst();
+            record(true);
+            return moved;
+        }
+
+        @Override
+        public boolean moveToLast() {
+            boolean moved = super.moveToLast();
+            record(true);
+            return moved;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            boolean moved = super.moveToNext();
+            record(true);
+            return moved;
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            super.fillWindow(position, window);
+            record(true);
+        }
+
+        @Override
+        public void close() {
+            record(false);
+            super.close();
+        }
+    }
+
+    private Series end(int operation, int match, long start, Uri uri, String selection,
+                       String[] selectionArgs, String sortOrder) {
+        long nanos = System.nanoTime() - start;
+        Series series = mSeries.get(getKey(operation, match));
+        if (series == null) {
+            return null;
+        }
+        series.mLatency.record(nanos);
+        if (nanos >= SLOW_NANOS) {
+            int index = (mNextSlowSample.getAndIncrement() & Integer.MAX_VALUE) % SLOW_SAMPLES;
+            mSlowSamples.set(index, new Sample(series.mName, nanos, uri, selection,
+                    selectionArgs, sortOrder));
+        }
+        return series;
+    }
+
+    /**
+     * Returns the series with at least one operation, with the given columns of
+     * {@link MetricsEntry}, or all of them if null.
+     */
+    Cursor query(String[] projection) {
+        if (projection == null) {
+            projection = MetricsEntry.COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (int i = 0; i < mSeries.size(); i++) {
+            Series series = mSeries.valueAt(i);
+            Histogram latency = series.mLatency;
+            long count = latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : projection) {
+                switch (column) {
+                    case MetricsEntry.COLUMN_NAME:
+                        row.add(series.mName);
+                        break;
+                    case MetricsEntry.COLUMN_COUNT:
+                        row.add(count);
+                        break;
+                    case MetricsEntry.COLUMN_ROWS:
+                        row.add(series.mRows.get());
+                        break;
+                    case MetricsEntry.COLUMN_MEAN_NANOS:
+                        row.add(latency.getMean());
+                        break;
+                    case MetricsEntry.COLUMN_P50_NANOS:
+                        row.add(latency.getPercentile(50));
+                        break;
+                    case MetricsEntry.COLUMN_P90_NANOS:
+                        row.add(latency.getPercentile(90));
+                        break;
+                    case MetricsEntry.COLUMN_P99_NANOS:
+                        row.add(latency.getPercentile(99));
+                        break;
+                    case MetricsEntry.COLUMN_MAX_NANOS:
+                        row.add(latency.getMax());
+                        break;
+                    case MetricsEntry.COLUMN_WINDOW_ROWS:
+                        row.add(series.mWindowRows.get());
+                        break;
+                    case MetricsEntry.COLUMN_WINDOW_OVERFLOWS:
+                        row.add(series.mWindowOverflows.get());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown metrics column " + column);
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Print the metrics and the slow operations, for dumpsys.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Metrics " + (mEnabled ? "on" : "off"));
+        writer.println("  operation: count rows mean/p50/p90/p99/max ms, window rows, window overflows");
+        for (int i = 0; i < mSeries.size(); i++) {
+            Series series = mSeries.valueAt(i);
+            Histogram latency = series.mLatency;
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            writer.printf("  %s: %d %d %.3f/%.3f/%.3f/%.3f/%.3f, %d, %d%n", series.mName,
+                    latency.getCount(), series.mRows.get(), latency.getMean() / 1e6,
+                    latency.getPercentile(50) / 1e6, latency.getPercentile(90) / 1e6,
+                    latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+                    series.mWindowRows.get(), series.mWindowOverflows.get());
+        }
+        writer.println("Slow operations, over " + SLOW_NANOS / 1000000 + " ms");
+        for (int i = 0; i < SLOW_SAMPLES; i++) {
+            Sample sample = mSlowSamples.get(i);
+            if (sample == null) {
+                continue;
+            }
+            writer.printf("  %tT %s %.3f ms %s where %s args %s order %s%n", sample.mTime,
+                    sample.mName, sample.mNanos / 1e6, sample.mUri, sample.mSelection,
+                    Arrays.toString(sample.mSelectionArgs), sample.mSortOrder);
+        }
+    }
+
+    private static int getKey(int operation, int match) {
+        return match * OPERATION_NAMES.length + operation;
+    }
+}
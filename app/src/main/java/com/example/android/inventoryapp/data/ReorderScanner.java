@@ -0,0 +1,145 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.ReorderEntry;
+
+/**
+ * Brings the drafts of the reorders, see {@link ReorderEntry}, up to date with the books. A scan
+ * only reads the suppliers logged in {@link BookDbHelper#REORDER_CHANGES_TABLE_NAME} after its
+ * watermark, and for each of them only its books at or below their threshold, found through the
+ * index on the supplier of the books. The draft of each of those suppliers is written again
+ * from scratch, so a scan can be repeated without harm.
+ */
+class ReorderScanner {
+
+    private static final String SQL_QUERY_CHANGED_SUPPLIERS = "SELECT "
+            + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ", MAX(_id)"
+            + " FROM " + BookDbHelper.REORDER_CHANGES_TABLE_NAME
+            + " WHERE _id > ? GROUP BY " + BookEntry.COLUMN_BOOK_SUPPLIER_ID;
+
+    private static final String SQL_QUERY_LOW_BOOKS = "SELECT "
+            + BookEntry.COLUMN_BOOK_TITLE + ", "
+            + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+            + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD
+            + " FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = ?"
+            + " AND " + BookEntry.COLUMN_BOOK_QUANTITY + " <= " + BookEntry.COLUMN_BOOK_REORDER_THRESHOLD
+            + " ORDER BY " + BookEntry.COLUMN_BOOK_TITLE;
+
+    private static final String SQL_REPLACE_DRAFT = "INSERT OR REPLACE INTO " + ReorderEntry.TABLE_NAME + " ("
+            + ReorderEntry._ID + ", "
+            + ReorderEntry.COLUMN_REORDER_LINES + ", "
+            + ReorderEntry.COLUMN_REORDER_COPIES + ", "
+            + ReorderEntry.COLUMN_REORDER_TIME + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_DELETE_DRAFT = "DELETE FROM " + ReorderEntry.TABLE_NAME
+            + " WHERE " + ReorderEntry._ID + " = ?";
+
+    private static final String SQL_DELETE_SCANNED = "DELETE FROM "
+            + BookDbHelper.REORDER_CHANGES_TABLE_NAME + " WHERE _id <= ?";
+
+    private ReorderScanner() {
+    }
+
+    /**
+     * Result of a scan
+     */
+    static class Result {
+        /**
+         * Watermark to start the next scan from
+         */
+        final long mWatermark;
+        /**
+         * Whether any draft was written or deleted
+         */
+        final boolean mChanged;
+
+        Result(long watermark, boolean changed) {
+            mWatermark = watermark;
+            mChanged = changed;
+        }
+    }
+
+    /**
+     * Scan the suppliers logged after the given watermark, in a single transaction. The log
+     * entries up to the watermark have been scanned by the previous scan, whose drafts have been
+     * committed, so they are deleted first.
+     */
+    static Result scan(SQLiteDatabase database, long watermark) {
+        long newWatermark = watermark;
+        boolean changed = false;
+        database.beginTransaction();
+        try {
+            SQLiteStatement deleteScanned = database.compileStatement(SQL_DELETE_SCANNED);
+            try {
+                deleteScanned.bindLong(1, watermark);
+                deleteScanned.executeUpdateDelete();
+            } finally {
+                deleteScanned.close();
+            }
+
+            long now = System.currentTimeMillis();
+            SQLiteStatement replaceDraft = database.compileStatement(SQL_REPLACE_DRAFT);
+            SQLiteStatement deleteDraft = database.compileStatement(SQL_DELETE_DRAFT);
+            Cursor suppliers = database.rawQuery(SQL_QUERY_CHANGED_SUPPLIERS,
+                    new String[]{String.valueOf(watermark)});
+            try {
+                StringBuilder lines = new StringBuilder();
+                while (suppliers.moveToNext()) {
+                    long supplierId = suppliers.getLong(0);
+                    newWatermark = Math.max(newWatermark, suppliers.getLong(1));
+
+                    lines.setLength(0);
+                    long copies = draftLines(database, supplierId, lines);
+                    if (copies == 0) {
+                        // None of the books of the supplier needs to be reordered anymore
+                        deleteDraft.bindLong(1, supplierId);
+                        changed |= deleteDraft.executeUpdateDelete() != 0;
+                    } else {
+                        replaceDraft.bindLong(1, supplierId);
+                        replaceDraft.bindString(2, lines.toString());
+                        replaceDraft.bindLong(3, copies);
+                        replaceDraft.bindLong(4, now);
+                        replaceDraft.executeInsert();
+                        changed = true;
+                    }
+                }
+            } finally {
+                suppliers.close();
+                replaceDraft.close();
+                deleteDraft.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return new Result(newWatermark, changed);
+    }
+
+    /**
+     * Append the lines of the draft of the given supplier to the builder. Return the number of
+     * copies to order, or 0 if there is no book to reorder.
+     */
+    private static long draftLines(SQLiteDatabase database, long supplierId, StringBuilder lines) {
+        long copies = 0;
+        Cursor books = database.rawQuery(SQL_QUERY_LOW_BOOKS, new String[]{String.valueOf(supplierId)});
+        try {
+            while (books.moveToNext()) {
+                // Bring the stock to twice the threshold, ordering at least one copy
+                long bookCopies = Math.max(2 * books.getLong(2) - books.getLong(1), 1);
+                if (lines.length() > 0) {
+                    lines.append('\n');
+                }
+                lines.append(bookCopies).append(" x ").append(books.getString(0));
+                copies += bookCopies;
+            }
+        } finally {
+            books.close();
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns the supplier columns of book values into a reference to the supplier. Books are written
+ * with the supplier's name, phone and email, as the editor and the files imported show them;
+ * the supplier is looked up by those and added if there is none yet, so that books sharing a
+ * supplier share its row.
+ * <p>
+ * A resolver compiles its statements once and remembers the suppliers it has resolved, so a
+ * bulk insert looks each supplier up once. It must be used and closed inside the transaction
+ * of the write, so that a supplier it adds is rolled back with the books.
+ * <p>
+ * An update that moves books to another supplier reads their suppliers first, with
+ * {@link #readSuppliers(String, String[])}, and then deletes the ones left without books, with
+ * {@link #deleteUnusedSuppliers()}, so that editing a supplier doesn't leave the old one behind.
+ */
+class SupplierResolver {
+
+    private static final String SQL_QUERY_SUPPLIER = "SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME
+            + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " = ?"
+            + " AND " + SupplierEntry.COLUMN_SUPPLIER_NAME + " IS ?"
+            + " AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE + " IS ?"
+            + " ORDER BY " + SupplierEntry._ID + " LIMIT 1";
+
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE + ") VALUES (?, ?, ?)";
+
+    private final SQLiteDatabase mDatabase;
+    private SQLiteStatement mQuery;
+    private SQLiteStatement mInsert;
+
+    /**
+     * IDs of the suppliers already resolved, by {@link #getKey(String, String, String)}
+     */
+    private final Map<String, Long> mIds = new HashMap<>();
+
+    /**
+     * IDs of the suppliers of the books before the update, see
+     * {@link #readSuppliers(String, String[])}
+     */
+    private final Set<Long> mPreviousIds = new HashSet<>();
+
+    SupplierResolver(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Returns whether the given values set the supplier of a book by its name, phone or email.
+     */
+    static boolean hasSupplierColumns(ContentValues values) {
+        return values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER)
+                || values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE)
+                || values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL);
+    }
+
+    /**
+     * Returns the values to write to the books table for the given book values: the same values
+     * with the supplier's name, phone and email replaced by its ID. The given values are not
+     * changed.
+     *
+     * @throws IllegalArgumentException if the supplier is only partly given
+     */
+    ContentValues resolve(ContentValues values) {
+        if (!hasSupplierColumns(values)) {
+            return values;
+        }
+        if (!values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER)
+                || !values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE)
+                || !values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL)) {
+            throw new IllegalArgumentException(
+                    "Book requires the supplier's name, phone and email together");
+        }
+
+        ContentValues bookValues = new ContentValues(values);
+        bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER);
+        bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE);
+        bookValues.remove(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL);
+        bookValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, getSupplierId(
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER),
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE),
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL)));
+        return bookValues;
+    }
+
+    /**
+     * Returns the ID of the supplier with the given name, phone and email, adding the supplier
+     * if there is none.
+     */
+    long getSupplierId(String name, String phone, String email) {
+        if (email == null) {
+            throw new IllegalArgumentException("Book requires a supplier's email");
+        }
+        String key = getKey(name, phone, email);
+        Long cachedId = mIds.get(key);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        long id;
+        if (mQuery == null) {
+            mQuery = mDatabase.compileStatement(SQL_QUERY_SUPPLIER);
+        }
+        bind(mQuery, email, name, phone);
+        try {
+            id = mQuery.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // There is no such supplier yet
+            if (mInsert == null) {
+                mInsert = mDatabase.compileStatement(SQL_INSERT_SUPPLIER);
+            }
+            bind(mInsert, email, name, phone);
+            id = mInsert.executeInsert();
+        }
+        mIds.put(key, id);
+        return id;
+    }
+
+    /**
+     * Remember the suppliers of the books of the given selection of the books table, before an
+     * update changes them or a delete removes the books.
+     */
+    void readSuppliers(String selection, String[] selectionArgs) {
+        Cursor cursor = mDatabase.query(true, BookEntry.TABLE_NAME,
+                new String[]{BookEntry.COLUMN_BOOK_SUPPLIER_ID}, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mPreviousIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Delete the suppliers read by {@link #readSuppliers(String, String[])} that no book
+     * references anymore. Returns the number of suppliers deleted.
+     */
+    int deleteUnusedSuppliers() {
+        int rowsDeleted = 0;
+        for (long id : mPreviousIds) {
+            rowsDeleted += mDatabase.delete(SupplierEntry.TABLE_NAME, SupplierEntry._ID + " = ?"
+                            + " AND NOT EXISTS (SELECT 1 FROM " + BookEntry.TABLE_NAME
+                            + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = ?)",
+                    new String[]{String.valueOf(id), String.valueOf(id)});
+        }
+        mPreviousIds.clear();
+        return rowsDeleted;
+    }
+
+    /**
+     * Release the compiled statements.
+     */
+    void close() {
+        if (mQuery != null) {
+            mQuery.close();
+        }
+        if (mInsert != null) {
+            mInsert.close();
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, String email, String name, String phone) {
+        statement.clearBindings();
+        statement.bindString(1, email);
+        if (name != null) {
+            statement.bindString(2, name);
+        }
+        if (phone != null) {
+            statement.bindString(3, phone);
+        }
+    }
+
+    /**
+     * Returns a key identifying a supplier. A null name or phone is told apart from an empty one.
+     */
+    private static String getKey(String name, String phone, String email) {
+        return email + '\u0000' + (name == null ? "\u0001" : name + '\u0000')
+                + (phone == null ? "\u0001" : phone);
+    }
+}
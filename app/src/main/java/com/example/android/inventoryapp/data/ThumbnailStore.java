@@ -0,0 +1,78 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Files of the book thumbnails, kept in the app's private storage. A thumbnail is named after
+ * its book, the hash of the image it was made from and its size, so a new image never
+ * overwrites the thumbnail of the previous one while it may still be shown.
+ */
+public final class ThumbnailStore {
+
+    public static final String LOG_TAG = ThumbnailStore.class.getSimpleName();
+
+    /**
+     * Size suffix of the thumbnails shown in the catalogue
+     */
+    public static final String SIZE_SMALL = "small";
+    /**
+     * Size suffix of the thumbnails shown in the editor
+     */
+    public static final String SIZE_MEDIUM = "medium";
+
+    /**
+     * Directory of the thumbnails, in the app's files directory
+     */
+    private static final String DIRECTORY = "thumbnails";
+
+    private ThumbnailStore() {
+    }
+
+    /**
+     * Returns the file for the thumbnail of the given size of a book's image.
+     */
+    public static File getFile(Context context, long bookId, String imageHash, String size) {
+        File directory = getDirectory(context);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Failed to create " + directory);
+        }
+        return new File(directory, bookId + "_" + imageHash + "_" + size + ".webp");
+    }
+
+    /**
+     * Delete the thumbnail with the given URI, as stored in the database. Does nothing if the
+     * URI is null.
+     */
+    public static void delete(String thumbnailUri) {
+        if (thumbnailUri == null) {
+            return;
+        }
+        File file = new File(Uri.parse(thumbnailUri).getPath());
+        if (!file.delete() && file.exists()) {
+            Log.w(LOG_TAG, "Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Delete the thumbnails of every book.
+     */
+    static void deleteAll(Context context) {
+        File[] files = getDirectory(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(LOG_TAG, "Failed to delete " + file);
+            }
+        }
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+}
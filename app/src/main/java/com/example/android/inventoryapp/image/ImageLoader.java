@@ -0,0 +1,400 @@
+package com.example.android.inventoryapp.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventoryapp.R;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads images into {@link ImageView}s off the main thread. Images are decoded down to the size
+ * they are shown at, kept in a memory cache bounded in bytes and decoded into the memory of
+ * bitmaps that are no longer used when possible. When a view is given another image before the
+ * previous one is ready, the previous request is cancelled.
+ */
+public class ImageLoader {
+
+    public static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /**
+     * Number of threads decoding images
+     */
+    private static final int DECODE_THREADS = 2;
+    /**
+     * Maximum number of unused bitmaps kept for reuse
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    private static ImageLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The fields below are guarded by mBitmapLock. Bitmaps are only reused once they are neither
+    // in the memory cache nor shown by a view. The maps have weak keys, so that bitmaps dropped
+    // by everyone else can still be garbage collected.
+    private final Object mBitmapLock = new Object();
+    private final Set<Bitmap> mCachedBitmaps =
+            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    private final Map<Bitmap, Integer> mShownBitmaps = new WeakHashMap<>();
+    private final List<SoftReference<Bitmap>> mReusableBitmaps = new LinkedList<>();
+
+    // Counters, to see how well the cache does
+    private final AtomicInteger mDecodeCount = new AtomicInteger();
+    private final AtomicLong mDecodeTimeMs = new AtomicLong();
+    private final AtomicInteger mReuseCount = new AtomicInteger();
+    private final AtomicInteger mCancelCount = new AtomicInteger();
+
+    private ImageLoader(Context context) {
+        mResolver = context.getContentResolver();
+
+        // Use an eighth of the memory available to the app for the cache
+        int cacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                synchronized (mBitmapLock) {
+                    mCachedBitmaps.remove(oldValue);
+                    recycleIfUnused(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the image loader of the app.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the image at the given URI in the given view, decoded to fit in a square of the
+     * given size. Must be called on the main thread.
+     *
+     * @param uri    of the image, or null to clear the view
+     * @param view   to show the image in
+     * @param sizePx size of the square the image should fit in, in pixels
+     */
+    public void load(String uri, ImageView view, int sizePx) {
+        Request previous = (Request) view.getTag(R.id.image_request);
+        if (previous != null) {
+            if (previous.mSizePx == sizePx && previous.mUri.equals(uri)) {
+                // The view already shows this image, or will shortly
+                return;
+            }
+            previous.cancel();
+        }
+        view.setTag(R.id.image_request, null);
+
+        if (uri == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        String key = uri + '@' + sizePx;
+        Request request = new Request(key, uri, sizePx, view);
+        view.setTag(R.id.image_request, request);
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            request.show(bitmap, false);
+        } else {
+            view.setImageDrawable(null);
+            request.mFuture = mExecutor.submit(request);
+        }
+    }
+
+    /**
+     * Returns a summary of the counters of the loader, for logging.
+     */
+    public String getStats() {
+        int decodes = mDecodeCount.get();
+        return "decodes=" + decodes
+                + " avgDecodeMs=" + (decodes == 0 ? 0 : mDecodeTimeMs.get() / decodes)
+                + " cacheHits=" + mMemoryCache.hitCount()
+                + " cacheMisses=" + mMemoryCache.missCount()
+                + " evictions=" + mMemoryCache.evictionCount()
+                + " cacheBytes=" + mMemoryCache.size()
+                + " reusedBitmaps=" + mReuseCount.get()
+                + " cancelled=" + mCancelCount.get();
+    }
+
+    /**
+     * Decode the image at the given URI so that it still covers a square of the given size.
+     * Returns null if the image can't be read.
+     */
+    private Bitmap decode(String uriString, int sizePx) {
+        long start = SystemClock.uptimeMillis();
+        Uri uri = Uri.parse(uriString);
+
+        // Read the dimensions of the image first, to work out how much to scale it down
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, sizePx);
+        options.inMutable = true;
+        options.inBitmap = takeReusableBitmap(options);
+
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(uri, options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap didn't fit after all, decode into a new one
+            options.inBitmap = null;
+            bitmap = decodeStream(uri, options);
+        }
+
+        if (bitmap != null) {
+            if (options.inBitmap != null) {
+                mReuseCount.incrementAndGet();
+            }
+            mDecodeCount.incrementAndGet();
+            mDecodeTimeMs.addAndGet(SystemClock.uptimeMillis() - start);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) {
+        InputStream input = null;
+        try {
+            input = mResolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(input, null, options);
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to load image " + uri, e);
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Nothing more to do with the stream
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the largest power of 2 that the image can be scaled down by while still
+     * covering a square of the given size.
+     */
+    private static int calculateInSampleSize(int width, int height, int sizePx) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= sizePx && height / (inSampleSize * 2) >= sizePx) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Add a bitmap that is no longer used to the reusable ones, unless it's still in the cache
+     * or shown by a view. Must hold mBitmapLock.
+     */
+    private void recycleIfUnused(Bitmap bitmap) {
+        if (!bitmap.isMutable() || mCachedBitmaps.contains(bitmap) || mShownBitmaps.containsKey(bitmap)) {
+            return;
+        }
+        mReusableBitmaps.add(new SoftReference<>(bitmap));
+        if (mReusableBitmaps.size() > MAX_REUSABLE_BITMAPS) {
+            mReusableBitmaps.remove(0);
+        }
+    }
+
+    /**
+     * Count the given bitmap as shown by one more view, so that it isn't reused. Must hold
+     * mBitmapLock.
+     */
+    private void pin(Bitmap bitmap) {
+        Integer count = mShownBitmaps.get(bitmap);
+        mShownBitmaps.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Count the given bitmap as shown by one view less, and reuse it if it's no longer used.
+     * Must hold mBitmapLock.
+     */
+    private void unpin(Bitmap bitmap) {
+        Integer count = mShownBitmaps.get(bitmap);
+        if (count == null || count <= 1) {
+            mShownBitmaps.remove(bitmap);
+            recycleIfUnused(bitmap);
+        } else {
+            mShownBitmaps.put(bitmap, count - 1);
+        }
+    }
+
+    /**
+     * Take a reusable bitmap that an image decoded with the given options fits in, if any.
+     */
+    private Bitmap takeReusableBitmap(BitmapFactory.Options options) {
+        synchronized (mBitmapLock) {
+            Iterator<SoftReference<Bitmap>> iterator = mReusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next().get();
+                if (bitmap == null) {
+                    iterator.remove();
+                } else if (canReuse(bitmap, options)) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether an image decoded with the given options can be decoded into the given
+     * bitmap.
+     */
+    private static boolean canReuse(Bitmap bitmap, BitmapFactory.Options options) {
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap that is large enough will do
+            return width * height * 4 <= bitmap.getAllocationByteCount();
+        }
+        // Before KitKat, the bitmap must have the same size and the image can't be scaled
+        return options.inSampleSize == 1
+                && bitmap.getWidth() == options.outWidth
+                && bitmap.getHeight() == options.outHeight;
+    }
+
+    /**
+     * Request for an image to be shown in a view. It is kept as a tag of the view, so that it
+     * can be cancelled when the view is given another image.
+     */
+    private class Request implements Runnable {
+        final String mKey;
+        final String mUri;
+        final int mSizePx;
+        final WeakReference<ImageView> mView;
+        volatile boolean mCancelled;
+        Future<?> mFuture;
+        /**
+         * Bitmap shown in the view, once it has been loaded. Only used on the main thread.
+         */
+        Bitmap mBitmap;
+
+        Request(String key, String uri, int sizePx, ImageView view) {
+            mKey = key;
+            mUri = uri;
+            mSizePx = sizePx;
+            mView = new WeakReference<>(view);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = decode(mUri, mSizePx);
+            if (bitmap == null) {
+                return;
+            }
+            // Pin the bitmap for the view until it's shown, or the request is cancelled. If it
+            // were evicted from the cache before then, another decode could reuse it meanwhile.
+            synchronized (mBitmapLock) {
+                mCachedBitmaps.add(bitmap);
+                pin(bitmap);
+            }
+            mMemoryCache.put(mKey, bitmap);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        synchronized (mBitmapLock) {
+                            unpin(bitmap);
+                        }
+                    } else {
+                        show(bitmap, true);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Show the loaded bitmap in the view, if the view is still waiting for it. Must be
+         * called on the main thread.
+         *
+         * @param pinned whether the bitmap has already been pinned for this request
+         */
+        void show(Bitmap bitmap, boolean pinned) {
+            ImageView view = mView.get();
+            if (view == null || view.getTag(R.id.image_request) != this) {
+                if (pinned) {
+                    synchronized (mBitmapLock) {
+                        unpin(bitmap);
+                    }
+                }
+                return;
+            }
+            if (!pinned) {
+                synchronized (mBitmapLock) {
+                    pin(bitmap);
+                }
+            }
+            mBitmap = bitmap;
+            view.setImageBitmap(bitmap);
+        }
+
+        /**
+         * Cancel the request: the view is about to show another image.
+         */
+        void cancel() {
+            if (mFuture != null && !mFuture.isDone()) {
+                mCancelCount.incrementAndGet();
+                mFuture.cancel(false);
+            }
+            mCancelled = true;
+
+            // The view no longer shows the bitmap of this request
+            if (mBitmap != null) {
+                synchronized (mBitmapLock) {
+                    unpin(mBitmap);
+                }
+                mBitmap = null;
+            }
+        }
+    }
+}
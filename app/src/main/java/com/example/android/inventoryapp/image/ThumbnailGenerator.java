@@ -0,0 +1,247 @@
+package com.example.android.inventoryapp.image;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.ThumbnailStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates the thumbnails of a book's image when the image is attached. The original image,
+ * which may be a large photo from another app, is read once here; the catalogue and the editor
+ * then show the thumbnails instead.
+ */
+public class ThumbnailGenerator {
+
+    public static final String LOG_TAG = ThumbnailGenerator.class.getSimpleName();
+
+    /**
+     * Quality of the WebP thumbnails, from 0 to 100
+     */
+    private static final int QUALITY = 80;
+    /**
+     * Size of the buffer used to hash images, in bytes
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Generates thumbnails one at a time, off the main thread
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final ContentResolver mResolver;
+    private final int mSmallSize;
+    private final int mMediumSize;
+
+    private ThumbnailGenerator(Context context) {
+        mContext = context;
+        mResolver = context.getContentResolver();
+        mSmallSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_small);
+        mMediumSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_medium);
+    }
+
+    /**
+     * Generate the thumbnails of the given image for the given book in the background, and
+     * record them in the database. Nothing is generated if the book already has thumbnails of
+     * an image with the same content.
+     */
+    public static void generate(Context context, final Uri bookUri, final Uri imageUri) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                new ThumbnailGenerator(appContext).generateNow(bookUri, imageUri);
+            }
+        });
+    }
+
+    private void generateNow(Uri bookUri, Uri imageUri) {
+        String hash = hash(imageUri);
+        if (hash == null) {
+            return;
+        }
+
+        // Read the thumbnails the book has now
+        String[] projection = {
+                BookEntry.COLUMN_BOOK_IMAGE_HASH,
+                BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+                BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM};
+        String oldHash;
+        String oldSmall;
+        String oldMedium;
+        Cursor cursor = mResolver.query(bookUri, projection, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                // The book has been deleted in the meantime
+                return;
+            }
+            oldHash = cursor.getString(0);
+            oldSmall = cursor.getString(1);
+            oldMedium = cursor.getString(2);
+        } finally {
+            cursor.close();
+        }
+        if (hash.equals(oldHash) && oldSmall != null && oldMedium != null) {
+            return;
+        }
+
+        Bitmap medium = decode(imageUri, mMediumSize);
+        if (medium == null) {
+            return;
+        }
+        Bitmap small = scaleToFit(medium, mSmallSize);
+
+        long bookId = ContentUris.parseId(bookUri);
+        File smallFile = ThumbnailStore.getFile(mContext, bookId, hash, ThumbnailStore.SIZE_SMALL);
+        File mediumFile = ThumbnailStore.getFile(mContext, bookId, hash, ThumbnailStore.SIZE_MEDIUM);
+        if (!write(small, smallFile) || !write(medium, mediumFile)) {
+            smallFile.delete();
+            mediumFile.delete();
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_IMAGE_HASH, hash);
+        values.put(BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL, Uri.fromFile(smallFile).toString());
+        values.put(BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM, Uri.fromFile(mediumFile).toString());
+        if (mResolver.update(bookUri, values, null, null) == 0) {
+            // The book has been deleted in the meantime
+            smallFile.delete();
+            mediumFile.delete();
+            return;
+        }
+
+        // The thumbnails of the previous image are no longer needed
+        if (!hash.equals(oldHash)) {
+            ThumbnailStore.delete(oldSmall);
+            ThumbnailStore.delete(oldMedium);
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the content at the given URI, in hexadecimal, or null if it
+     * can't be read.
+     */
+    private String hash(Uri uri) {
+        InputStream input = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            input = mResolver.openInputStream(uri);
+            if (input == null) {
+                return null;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        } catch (IOException | NoSuchAlgorithmException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to read image " + uri, e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Decode the image at the given URI scaled down to fit in a square of the given size.
+     */
+    private Bitmap decode(Uri uri, int sizePx) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Decode at the smallest power of 2 that still covers the size, then scale the rest
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= sizePx
+                && options.outHeight / (options.inSampleSize * 2) >= sizePx) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = decodeStream(uri, options);
+        return bitmap == null ? null : scaleToFit(bitmap, sizePx);
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) {
+        InputStream input = null;
+        try {
+            input = mResolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(input, null, options);
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to decode image " + uri, e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Scale the given bitmap down, keeping its aspect ratio, so that it fits in a square of
+     * the given size. Bitmaps that already fit are returned as they are.
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int sizePx) {
+        int largest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (largest <= sizePx) {
+            return bitmap;
+        }
+        float scale = (float) sizePx / largest;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+
+    private static boolean write(Bitmap bitmap, File file) {
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            return bitmap.compress(Bitmap.CompressFormat.WEBP, QUALITY, output);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write thumbnail " + file, e);
+            return false;
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do with the stream
+            }
+        }
+    }
+}
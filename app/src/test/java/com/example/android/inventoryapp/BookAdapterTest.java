@@ -0,0 +1,147 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link BookAdapter}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookAdapterTest {
+
+    /**
+     * Number of books of the list, more than the rows bound to them so that rows are rebound
+     * to other books
+     */
+    private static final int BOOK_COUNT = 20;
+    /**
+     * Number of rows the books are bound to
+     */
+    private static final int ROW_COUNT = 8;
+    /**
+     * Number of binds measured
+     */
+    private static final int BINDS = 10000;
+    /**
+     * Bytes a bind may allocate on average beyond what its views allocate, less than the
+     * smallest object
+     */
+    private static final double MAX_EXTRA_BYTES_PER_BIND = 8;
+
+    private Context mContext;
+    private BookAdapter mAdapter;
+    private final List<BookAdapter.ViewHolder> mHolders = new ArrayList<>();
+    private final List<CatalogItem> mBooks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            mBooks.add(new CatalogItem(i + 1, "Book " + i, 10 + i, i % 5, null,
+                    mContext.getResources()));
+        }
+        mAdapter = new BookAdapter(mContext);
+        mAdapter.submitList(Collections.unmodifiableList(mBooks));
+
+        RecyclerView parent = new RecyclerView(mContext);
+        parent.setLayoutManager(new LinearLayoutManager(mContext));
+        for (int i = 0; i < ROW_COUNT; i++) {
+            mHolders.add(mAdapter.onCreateViewHolder(parent, 0));
+        }
+    }
+
+    @Test
+    public void bindingRowsAllocatesNothingBeyondTheViews() {
+        com.sun.management.ThreadMXBean allocations = getAllocationCounter();
+        Assume.assumeTrue("The JVM can't count allocations", allocations != null);
+
+        final List<Object> payloads = Collections.<Object>singletonList(new Object());
+        Runnable bind = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BINDS; i++) {
+                    BookAdapter.ViewHolder holder = mHolders.get(i % ROW_COUNT);
+                    int position = (i * 7) % BOOK_COUNT;
+                    if (i % 4 == 0) {
+                        // A change of quantity only, after a sale
+                        mAdapter.onBindViewHolder(holder, position, payloads);
+                    } else {
+                        mAdapter.onBindViewHolder(holder, position);
+                    }
+                }
+            }
+        };
+        // The same changes to the views, made directly, for what the views allocate themselves
+        Runnable setViews = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BINDS; i++) {
+                    BookAdapter.ViewHolder holder = mHolders.get(i % ROW_COUNT);
+                    CatalogItem book = mBooks.get((i * 7) % BOOK_COUNT);
+                    if (i % 4 != 0) {
+                        holder.mImageView.setImageDrawable(null);
+                        holder.mTitleTextView.setText(book.mTitle);
+                        holder.mPriceTextView.setText(book.mPriceText);
+                    }
+                    holder.mQuantityTextView.setText(book.mQuantityText);
+                }
+            }
+        };
+
+        // Warm both up, so that lazily created state isn't counted
+        bind.run();
+        setViews.run();
+
+        long viewBytes = measure(allocations, setViews);
+        long bindBytes = measure(allocations, bind);
+        double extraBytesPerBind = (double) (bindBytes - viewBytes) / BINDS;
+        assertTrue("Binding a row allocated " + extraBytesPerBind + " bytes beyond its views ("
+                        + bindBytes + " bytes for " + BINDS + " binds, " + viewBytes + " for the views)",
+                extraBytesPerBind < MAX_EXTRA_BYTES_PER_BIND);
+    }
+
+    /**
+     * Returns the bytes the current thread allocates running the given code.
+     */
+    private static long measure(com.sun.management.ThreadMXBean allocations, Runnable code) {
+        long threadId = Thread.currentThread().getId();
+        long start = allocations.getThreadAllocatedBytes(threadId);
+        code.run();
+        return allocations.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    /**
+     * Returns the counter of the bytes allocated by threads, as the benchmarks use, or null if
+     * the JVM can't count them.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.android.inventoryapp;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.example.android.inventoryapp.data.BookContract;
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlertDialog;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs the writes of the catalogue and of the editor under a thread policy that kills the app
+ * on any disk access of the main thread, as the debug build only logs them. The host JVM
+ * doesn't report its own file accesses to StrictMode, so the provider also fails any write
+ * made on the main thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class StrictModeWriteTest {
+
+    /**
+     * Time the writes made in the background have to land
+     */
+    private static final long TIMEOUT_MS = 10000;
+
+    private ContentResolver mResolver;
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    /**
+     * The provider of the app, which fails the writes made on the main thread.
+     */
+    public static class MainThreadCheckingProvider extends BookProvider {
+
+        @Override
+        public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
+            checkNotMainThread("insert");
+            return super.insert(uri, contentValues);
+        }
+
+        @Override
+        public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+            checkNotMainThread("bulkInsert");
+            return super.bulkInsert(uri, values);
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, @Nullable ContentValues contentValues,
+                          @Nullable String selection, @Nullable String[] selectionArgs) {
+            checkNotMainThread("update");
+            return super.update(uri, contentValues, selection, selectionArgs);
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, @Nullable String selection,
+                          @Nullable String[] selectionArgs) {
+            checkNotMainThread("delete");
+            return super.delete(uri, selection, selectionArgs);
+        }
+
+        @Override
+        public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+            checkNotMainThread("call " + method);
+            return super.call(method, arg, extras);
+        }
+
+        private static void checkNotMainThread(String write) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                throw new AssertionError("The main thread made a write: " + write);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(MainThreadCheckingProvider.class,
+                BookContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mOldPolicy = StrictMode.getThreadPolicy();
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog()
+                .penaltyDeath()
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        StrictMode.setThreadPolicy(mOldPolicy);
+    }
+
+    @Test
+    public void catalogueWritesLeaveTheMainThread() {
+        CatalogActivity activity = Robolectric.buildActivity(CatalogActivity.class).setup().get();
+
+        // Insert the sample books
+        shadowOf(activity).clickMenuItem(R.id.action_insert_data);
+        waitForBookCount(5);
+
+        // Sell a copy from the first row of the list, once the list has shown the books
+        RecyclerView list = (RecyclerView) activity.findViewById(R.id.list);
+        waitForRows(list);
+        long soldBefore = queryLong(SaleEntry.SUMMARY_URI, SaleEntry.COLUMN_SUMMARY_UNITS_SOLD);
+        list.getChildAt(0).findViewById(R.id.button_sale).performClick();
+        waitForLong(SaleEntry.SUMMARY_URI, SaleEntry.COLUMN_SUMMARY_UNITS_SOLD, soldBefore + 1);
+
+        // Delete every book
+        shadowOf(activity).clickMenuItem(R.id.action_delete_all_entries);
+        clickPositiveButton();
+        waitForBookCount(0);
+    }
+
+    @Test
+    public void editorWritesLeaveTheMainThread() {
+        // Add a new book
+        EditorActivity editor = Robolectric.buildActivity(EditorActivity.class).setup().get();
+        editor.mTitleEditText.setText("Dune");
+        editor.mAuthorEditText.setText("Frank Herbert");
+        editor.mPriceEditText.setText("10");
+        editor.mQuantityEditText.setText("3");
+        editor.mSupplierEditText.setText("Chilton");
+        editor.mSupplierPhoneEditText.setText("555-0100");
+        editor.mSupplierEmailEditText.setText("orders@chilton.example.com");
+        editor.openImageSelector();
+        Intent image = new Intent().setData(getImageUri());
+        editor.onActivityResult(shadowOf(editor).getNextStartedActivityForResult().requestCode,
+                Activity.RESULT_OK, image);
+        shadowOf(editor).clickMenuItem(R.id.action_save);
+        waitForBookCount(1);
+        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI,
+                queryLong(BookEntry.CONTENT_URI, BookEntry._ID));
+
+        // Change its price
+        Intent edit = new Intent(RuntimeEnvironment.application, EditorActivity.class)
+                .setData(bookUri);
+        editor = Robolectric.buildActivity(EditorActivity.class, edit).setup().get();
+        waitForText(editor, "Dune");
+        editor.mPriceEditText.setText("12");
+        shadowOf(editor).clickMenuItem(R.id.action_save);
+        waitForLong(bookUri, BookEntry.COLUMN_BOOK_PRICE, 12);
+
+        // And delete it
+        editor = Robolectric.buildActivity(EditorActivity.class, edit).setup().get();
+        shadowOf(editor).clickMenuItem(R.id.action_delete);
+        clickPositiveButton();
+        waitForBookCount(0);
+    }
+
+    /**
+     * Returns the URI of an image of the app, as the image picker would.
+     */
+    private static Uri getImageUri() {
+        Resources resources = RuntimeEnvironment.application.getResources();
+        return Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://"
+                + resources.getResourcePackageName(R.drawable.no_image) + '/'
+                + resources.getResourceTypeName(R.drawable.no_image) + '/'
+                + resources.getResourceEntryName(R.drawable.no_image));
+    }
+
+    /**
+     * Click the button that confirms the dialog shown last.
+     */
+    private static void clickPositiveButton() {
+        AlertDialog dialog = ShadowAlertDialog.getLatestAlertDialog();
+        assertNotNull("No dialog was shown", dialog);
+        dialog.getButton(AlertDialog.BUTTON_POSITIVE).performClick();
+    }
+
+    private void waitForBookCount(final int count) {
+        waitFor("a count of " + count + " books", new Condition() {
+            @Override
+            public boolean isMet() {
+                return queryLong(BookEntry.STATS_URI, BookEntry.COLUMN_STATS_BOOK_COUNT) == count;
+            }
+        });
+    }
+
+    private void waitForLong(final Uri uri, final String column, final long value) {
+        waitFor(column + " = " + value, new Condition() {
+            @Override
+            public boolean isMet() {
+                return queryLong(uri, column) == value;
+            }
+        });
+    }
+
+    private void waitForRows(final RecyclerView list) {
+        waitFor("the rows of the list", new Condition() {
+            @Override
+            public boolean isMet() {
+                // Robolectric doesn't lay the views out by itself
+                list.measure(View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY));
+                list.layout(0, 0, 480, 800);
+                return list.getChildCount() > 0;
+            }
+        });
+    }
+
+    private void waitForText(final EditorActivity editor, final String title) {
+        waitFor("the book to load", new Condition() {
+            @Override
+            public boolean isMet() {
+                return title.equals(editor.mTitleEditText.getText().toString());
+            }
+        });
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    /**
+     * Run the tasks of the main thread until the given condition is met. The condition may read
+     * the database, which the policy of the test only allows there.
+     */
+    private static void waitFor(String description, Condition condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            StrictMode.ThreadPolicy policy = StrictMode.allowThreadDiskReads();
+            boolean met;
+            try {
+                met = condition.isMet();
+            } finally {
+                StrictMode.setThreadPolicy(policy);
+            }
+            if (met) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + description);
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted waiting for " + description);
+            }
+        }
+    }
+
+    /**
+     * Returns the given column of the first row of the given URI.
+     */
+    private long queryLong(Uri uri, String column) {
+        Cursor cursor = mResolver.query(uri, new String[]{column}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the schema migrations of {@link BookDbHelper}, from a database created by the first
+ * version of the app.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookDbHelperTest {
+
+    /**
+     * Number of books in the database of the first version
+     */
+    private static final int BOOK_COUNT = 100;
+    /**
+     * Number of distinct suppliers of those books
+     */
+    private static final int SUPPLIER_COUNT = 10;
+
+    private File mFile;
+    private BookDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mFile = RuntimeEnvironment.application.getDatabasePath("books.db");
+        mFile.getParentFile().mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        SQLiteDatabase.deleteDatabase(mFile);
+    }
+
+    @Test
+    public void upgradeFromVersion1() {
+        createVersion1();
+
+        mHelper = new BookDbHelper(RuntimeEnvironment.application);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        // Every book is kept, with its type as an INTEGER and its supplier moved to its own table
+        assertEquals(BOOK_COUNT, DatabaseUtils.queryNumEntries(db, BookEntry.TABLE_NAME));
+        assertEquals(SUPPLIER_COUNT, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+        Cursor cursor = db.query(BookDbHelper.BOOKS_VIEW_NAME, null, BookEntry._ID + " = 8",
+                null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Title 8", cursor.getString(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_TITLE)));
+            assertEquals(Cursor.FIELD_TYPE_INTEGER,
+                    cursor.getType(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_TYPE)));
+            assertEquals(BookEntry.TYPE_TECHNICAL,
+                    cursor.getInt(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_TYPE)));
+            assertEquals("supplier8@example.com",
+                    cursor.getString(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL)));
+            assertEquals(BookEntry.LOW_STOCK_QUANTITY,
+                    cursor.getInt(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_REORDER_THRESHOLD)));
+        } finally {
+            cursor.close();
+        }
+
+        // The full-text index was built from the books already there
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                + BookDbHelper.FTS_TABLE_NAME + " WHERE " + BookDbHelper.FTS_TABLE_NAME
+                + " MATCH 'title 8'", null));
+
+        // The lookups of the provider use the indexes the migrations added
+        assertPlanUses(db, "SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_TITLE + " = 'Title 8'", "books_title_index");
+        assertPlanUses(db, "SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_QUANTITY + " <= 2", "books_quantity_index");
+        assertPlanUses(db, "SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = 1", "books_supplier_id_index");
+        assertPlanUses(db, "SELECT " + BookEntry._ID + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " = 'supplier1@example.com'",
+                "suppliers_email_index");
+        assertPlanUses(db, "SELECT " + TextUtils.join(", ", BookEntry.LIST_COLUMNS)
+                + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " > 50"
+                + " ORDER BY " + BookEntry._ID + " LIMIT 50", BookDbHelper.LIST_INDEX_NAME);
+    }
+
+    @Test
+    public void downgradeRecreatesSchema() {
+        mHelper = new BookDbHelper(RuntimeEnvironment.application);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        int version = db.getVersion();
+        db.setVersion(version + 1);
+        mHelper.close();
+
+        // Opening the newer database drops it and creates the current schema
+        mHelper = new BookDbHelper(RuntimeEnvironment.application);
+        db = mHelper.getWritableDatabase();
+        assertEquals(version, db.getVersion());
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, BookEntry.TABLE_NAME));
+        mHelper.close();
+
+        // And the recreated database opens again without running any migration
+        mHelper = new BookDbHelper(RuntimeEnvironment.application);
+        db = mHelper.getWritableDatabase();
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_EMAIL, "supplier@example.com");
+        long supplierId = db.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_TITLE, "Title");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, 100);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+        db.insertOrThrow(BookEntry.TABLE_NAME, null, book);
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, BookEntry.TABLE_NAME));
+    }
+
+    /**
+     * Create the database of the first version of the app, filled with {@link #BOOK_COUNT}
+     * books.
+     */
+    private void createVersion1() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        try {
+            db.execSQL("CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "title TEXT NOT NULL, author TEXT, type TEXT, price INTEGER NOT NULL, "
+                    + "quantity INTEGER NOT NULL DEFAULT 0, supplier TEXT, telephone_supplier TEXT, "
+                    + "email_supplier TEXT NOT NULL, image TEXT);");
+            db.beginTransaction();
+            try {
+                for (int i = 1; i <= BOOK_COUNT; i++) {
+                    int supplier = i % SUPPLIER_COUNT;
+                    ContentValues values = new ContentValues();
+                    values.put("title", "Title " + i);
+                    values.put("author", "Author " + i);
+                    values.put("type", String.valueOf(i % 3));
+                    values.put("price", 100 + i);
+                    values.put("quantity", i % 5);
+                    values.put("supplier", "Supplier " + supplier);
+                    values.put("telephone_supplier", "555-01" + supplier);
+                    values.put("email_supplier", "supplier" + supplier + "@example.com");
+                    db.insertOrThrow("books", null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Assert that SQLite runs the given query with the given index.
+     */
+    private static void assertPlanUses(SQLiteDatabase db, String query, String index) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(query + " doesn't use " + index + ":\n" + plan,
+                plan.toString().contains(" " + index));
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link BookImporter}. The large import checks the heap still in use at intervals,
+ * which grows with the size of the file unless the file is streamed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookImporterTest {
+
+    /**
+     * Number of rows of the large file
+     */
+    private static final int LARGE_ROW_COUNT = 1000000;
+    /**
+     * Every row at this interval has an invalid price
+     */
+    private static final int INVALID_ROW_INTERVAL = 100000;
+    /**
+     * Number of progress calls between two checks of the heap in use
+     */
+    private static final int HEAP_CHECK_INTERVAL = 200;
+    /**
+     * Growth of the heap in use allowed during the large import, a fraction of the size of its
+     * file of about 120 MB
+     */
+    private static final long MAX_HEAP_GROWTH = 32L * 1024 * 1024;
+
+    private static final String HEADER = "title,author,type,price,quantity,supplier,"
+            + "telephone_supplier,email_supplier,image\n";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ContentResolver mResolver;
+    private final List<String> mErrors = new ArrayList<>();
+    private int mProgressCalls;
+    private int mLastRowsImported;
+    /**
+     * Heap in use before the import, or -1 if the heap isn't checked
+     */
+    private long mHeapBefore = -1;
+    private long mMaxHeapGrowth;
+
+    private final BookImporter.Listener mListener = new BookImporter.Listener() {
+        @Override
+        public void onProgress(int rowsRead, int rowsImported) {
+            mProgressCalls++;
+            mLastRowsImported = rowsImported;
+            if (mHeapBefore != -1 && mProgressCalls % HEAP_CHECK_INTERVAL == 0) {
+                mMaxHeapGrowth = Math.max(mMaxHeapGrowth, getUsedHeap() - mHeapBefore);
+            }
+        }
+
+        @Override
+        public void onRowError(int line, String message) {
+            mErrors.add(line + ": " + message);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void importsQuotedAndInvalidRows() throws IOException {
+        Uri uri = writeFile("small.csv", HEADER
+                + "\"Dune, part one\",Frank Herbert,novel,10,3,Chilton,555-0100,orders@chilton.example.com,\r\n"
+                + "\"The \"\"C\"\" language\",,technical,n/a,1,,,orders@ph.example.com,\r\n"
+                + "\r\n"
+                + "SICP,\"Abelson\nSussman\",2,40,,MIT Press,,orders@mit.example.com,");
+
+        BookImporter.Result result = new BookImporter(mResolver, mListener).importBooks(uri);
+
+        assertEquals(3, result.mRowsRead);
+        assertEquals(2, result.mRowsImported);
+        assertEquals(1, result.mRowsFailed);
+        assertEquals(1, mErrors.size());
+        assertEquals("3: Invalid price: n/a", mErrors.get(0));
+
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, new String[]{
+                BookEntry.COLUMN_BOOK_TITLE,
+                BookEntry.COLUMN_BOOK_AUTHOR,
+                BookEntry.COLUMN_BOOK_QUANTITY}, null, null, BookEntry._ID);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Dune, part one", cursor.getString(0));
+            assertEquals(3, cursor.getInt(2));
+            assertTrue(cursor.moveToNext());
+            assertEquals("SICP", cursor.getString(0));
+            assertEquals("Abelson\nSussman", cursor.getString(1));
+            assertEquals(0, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void importsLargeFileInBoundedMemory() throws IOException {
+        File file = mFolder.newFile("large.csv");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), Charset.forName("UTF-8")));
+        try {
+            writer.write(HEADER);
+            for (int i = 0; i < LARGE_ROW_COUNT; i++) {
+                boolean invalid = i % INVALID_ROW_INTERVAL == INVALID_ROW_INTERVAL - 1;
+                int supplier = i % 50;
+                writer.write(String.format(Locale.US,
+                        "\"Book %d, volume %d\",Author %d,%s,%s,%d,Supplier %d,555-01%02d,"
+                                + "orders@supplier%d.example.com,content://images/%d\n",
+                        i, i % 10, i % 1000, i % 2 == 0 ? "novel" : "technical",
+                        invalid ? "n/a" : String.valueOf(5 + i % 50), i % 20,
+                        supplier, supplier, supplier, i));
+            }
+        } finally {
+            writer.close();
+        }
+        Uri uri = Uri.fromFile(file);
+        Shadows.shadowOf(mResolver).registerInputStream(uri, new FileInputStream(file));
+
+        mHeapBefore = getUsedHeap();
+        BookImporter.Result result = new BookImporter(mResolver, mListener).importBooks(uri);
+
+        // Neither the file nor its rows were held while it was imported
+        assertTrue("The heap in use grew by " + mMaxHeapGrowth / 1024 + " KB during the import",
+                mMaxHeapGrowth < MAX_HEAP_GROWTH);
+
+        int invalidRows = LARGE_ROW_COUNT / INVALID_ROW_INTERVAL;
+        assertEquals(LARGE_ROW_COUNT, result.mRowsRead);
+        assertEquals(LARGE_ROW_COUNT - invalidRows, result.mRowsImported);
+        assertEquals(invalidRows, result.mRowsFailed);
+        assertEquals(invalidRows, mErrors.size());
+        // The header is line 1, so row i is on line i + 2
+        assertEquals((INVALID_ROW_INTERVAL + 1) + ": Invalid price: n/a", mErrors.get(0));
+        assertEquals(LARGE_ROW_COUNT - invalidRows, mLastRowsImported);
+        assertTrue(mProgressCalls >= (LARGE_ROW_COUNT - invalidRows) / BookImporter.CHUNK_SIZE);
+
+        Cursor cursor = mResolver.query(BookEntry.STATS_URI,
+                new String[]{BookEntry.COLUMN_STATS_BOOK_COUNT}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(LARGE_ROW_COUNT - invalidRows, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the bytes of the heap still in use once the garbage is collected.
+     */
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Write a file with the given content, and returns the URI the importer reads it from.
+     */
+    private Uri writeFile(String name, String content) throws IOException {
+        File file = mFolder.newFile(name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        Uri uri = Uri.fromFile(file);
+        Shadows.shadowOf(mResolver).registerInputStream(uri, new FileInputStream(file));
+        return uri;
+    }
+}
@@ -0,0 +1,760 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmarks of the data layer, run on the host JVM: the {@link BookProvider} and its
+ * {@link BookDbHelper} on the SQLite of Robolectric. For each table size every operation is
+ * warmed up, then timed over a few iterations. The bytes allocated by the thread running them
+ * are counted too, on JVMs that can count them.
+ * <p>
+ * The results are appended to a JSON Lines file, one line per operation and size, so that the
+ * runs of two commits can be compared. The benchmark only runs when asked for, as it takes
+ * far longer than the tests and appends to its output on every run. Properties, given with -D
+ * on the Gradle command line:
+ * <ul>
+ * <li>benchmark.run: true to run the benchmark, which is skipped otherwise</li>
+ * <li>benchmark.sizes: comma-separated numbers of books, 1000 by default, e.g.
+ * 10000,100000,1000000. The cursor window cases are meant to be compared at 100000.</li>
+ * <li>benchmark.output: file the results are appended to, build/benchmark/results.jsonl by
+ * default</li>
+ * <li>benchmark.label: label of the run, such as the commit, added to every result</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookProviderBenchmark {
+
+    /**
+     * Number of untimed iterations of each operation
+     */
+    private static final int WARMUP_ITERATIONS = 2;
+    /**
+     * Number of timed iterations of each operation
+     */
+    private static final int ITERATIONS = 5;
+    /**
+     * Number of operations of each iteration of the single-row benchmarks
+     */
+    private static final int OPERATIONS = 200;
+    /**
+     * Number of books of each bulk insert, as the importer writes them
+     */
+    private static final int CHUNK_SIZE = 500;
+    /**
+     * Number of books of each page of the catalogue
+     */
+    private static final int PAGE_SIZE = 1000;
+    /**
+     * Number of books of each page the list reads as it scrolls
+     */
+    private static final int LIST_PAGE_SIZE = 50;
+    /**
+     * Number of distinct suppliers of the generated books
+     */
+    private static final int SUPPLIER_COUNT = 50;
+    /**
+     * Number of distinct books opened in the editor, going back and forth from the catalogue
+     */
+    private static final int OPENED_BOOKS = 100;
+
+    /**
+     * Bytes a CursorWindow takes for each field besides its value: the type and the value or
+     * offset of its slot
+     */
+    private static final int FIELD_SLOT_BYTES = 12;
+    /**
+     * Size of a CursorWindow, as set by the platform
+     */
+    private static final int WINDOW_BYTES = 2 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Columns the editor loads for the book it opens
+     */
+    private static final String[] EDITOR_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_TITLE,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_TYPE,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE,
+            BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL,
+            BookEntry.COLUMN_BOOK_IMAGE,
+            BookEntry.COLUMN_BOOK_THUMBNAIL_MEDIUM};
+
+    /**
+     * Counts the bytes allocated by a thread, or null if the JVM can't
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = getAllocationCounter();
+
+    private BookProvider mProvider;
+    private ContentResolver mResolver;
+    private Writer mOutput;
+    private String mLabel;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Run with -Dbenchmark.run=true", Boolean.getBoolean("benchmark.run"));
+        mProvider = Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mLabel = System.getProperty("benchmark.label", "");
+        // The debug build records metrics of every operation, which the app doesn't in release
+        mResolver.call(BookEntry.CONTENT_URI, BookContract.MetricsEntry.METHOD_SET_ENABLED,
+                String.valueOf(false), null);
+    }
+
+    @Test
+    public void run() throws IOException {
+        File output = new File(System.getProperty("benchmark.output", "build/benchmark/results.jsonl"));
+        File directory = output.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        mOutput = new FileWriter(output, true);
+        try {
+            for (String size : System.getProperty("benchmark.sizes", "1000").split(",")) {
+                runAll(Integer.parseInt(size.trim()));
+            }
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    /**
+     * Run every benchmark on a table of the given number of books, starting from an empty one.
+     */
+    private void runAll(final int size) throws IOException {
+        mResolver.delete(BookEntry.CONTENT_URI, null, null);
+
+        // Fill the table, timing the bulk inserts, so the other benchmarks run on the given size
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int first = 0; first < size; first += CHUNK_SIZE) {
+            ContentValues[] chunk = new ContentValues[Math.min(CHUNK_SIZE, size - first)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = createBook(first + i);
+            }
+            mResolver.bulkInsert(BookEntry.CONTENT_URI, chunk);
+        }
+        long time = System.nanoTime() - start;
+        report("bulk_insert", size, size, new long[]{time}, getAllocatedBytes() - allocated);
+
+        final long firstId = queryFirstId();
+        measure("insert", size, OPERATIONS, new Operation() {
+            int mNext = size;
+
+            @Override
+            public void run() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    mResolver.insert(BookEntry.CONTENT_URI, createBook(mNext++));
+                }
+            }
+        });
+        measure("update_price", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    values.put(BookEntry.COLUMN_BOOK_PRICE, 5 + mNext % 50);
+                    long id = firstId + mNext++ % size;
+                    mResolver.update(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id), values,
+                            null, null);
+                }
+            }
+        });
+        measure("update", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    values.put(BookEntry.COLUMN_BOOK_QUANTITY, mNext % 20);
+                    long id = firstId + mNext++ % size;
+                    mResolver.update(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id), values,
+                            null, null);
+                }
+            }
+        });
+        // The same single-column writes on the database alone, as SQLiteDatabase builds them
+        // from content values, which the provider did before it compiled them, and through a
+        // statement compiled once
+        measureColumnUpdate("update_price", BookEntry.COLUMN_BOOK_PRICE, 50, size, firstId);
+        measureColumnUpdate("update", BookEntry.COLUMN_BOOK_QUANTITY, 20, size, firstId);
+
+        measure("catalogue_query", size, size, new Operation() {
+            @Override
+            public void run() {
+                // Read every page of the catalogue, as the list does when scrolled to the end
+                long lastId = 0;
+                while (true) {
+                    Cursor cursor = mResolver.query(BookEntry.buildPageUri(lastId, PAGE_SIZE),
+                            BookEntry.LIST_COLUMNS, null, null, null);
+                    try {
+                        if (!cursor.moveToLast()) {
+                            return;
+                        }
+                        lastId = cursor.getLong(0);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+        measure("map_catalogue", size, size, new Operation() {
+            @Override
+            public void run() {
+                // Read every book of the catalogue into the same instance, as the list does
+                Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, BookEntry.LIST_COLUMNS,
+                        null, null, null);
+                try {
+                    BookMapper mapper = new BookMapper(cursor);
+                    Book book = new Book();
+                    while (cursor.moveToNext()) {
+                        mapper.read(book);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+        // Every book read into cursor windows from the columns of the list, through the covering
+        // index and from the rows of the table, and from every column of the table
+        String listColumns = TextUtils.join(", ", BookEntry.LIST_COLUMNS);
+        measureWindowFill("window_fill_list", size, "SELECT " + listColumns + " FROM "
+                + BookEntry.TABLE_NAME + " ORDER BY " + BookEntry._ID);
+        measureWindowFill("window_fill_list_no_index", size, "SELECT " + listColumns + " FROM "
+                + BookEntry.TABLE_NAME + " NOT INDEXED ORDER BY " + BookEntry._ID);
+        measureWindowFill("window_fill_full", size, "SELECT * FROM " + BookEntry.TABLE_NAME
+                + " ORDER BY " + BookEntry._ID);
+
+        measure("search", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    Uri uri = BookEntry.buildSearchUri("book " + mNext++ % size).buildUpon()
+                            .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                            .build();
+                    Cursor cursor = mResolver.query(uri, BookEntry.LIST_COLUMNS, null, null, null);
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+        measure("search_like", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                // The same searches without the full-text index, as a baseline: every book is
+                // scanned for the words, as the catalogue did before it had the index
+                String selection = BookEntry.COLUMN_BOOK_TITLE + " LIKE ? OR "
+                        + BookEntry.COLUMN_BOOK_AUTHOR + " LIKE ? OR "
+                        + BookEntry.COLUMN_BOOK_SUPPLIER + " LIKE ?";
+                Uri uri = BookEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                        .build();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    String pattern = "%book " + mNext++ % size + "%";
+                    Cursor cursor = mResolver.query(uri, BookEntry.LIST_COLUMNS, selection,
+                            new String[]{pattern, pattern, pattern}, BookEntry._ID);
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+
+        measure("open_book", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    long id = firstId + mNext++ % Math.min(OPENED_BOOKS, size);
+                    Cursor cursor = mResolver.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id),
+                            EDITOR_PROJECTION, null, null, null);
+                    try {
+                        cursor.moveToFirst();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+        measure("open_book_uncached", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                // The same books read from the database every time: selected by ID from all the
+                // books, which the cache doesn't serve, with the query of a book not cached
+                String selection = BookEntry._ID + " = ?";
+                for (int i = 0; i < OPERATIONS; i++) {
+                    long id = firstId + mNext++ % Math.min(OPENED_BOOKS, size);
+                    Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, EDITOR_PROJECTION,
+                            selection, new String[]{String.valueOf(id)}, null);
+                    try {
+                        cursor.moveToFirst();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+
+        for (BookExporter.Format format : BookExporter.Format.values()) {
+            measureExport(format, size);
+        }
+
+        // Reads of the catalogue while an import writes, with the connections the app uses and
+        // with a rollback journal, under which a read waits for the whole transaction of a chunk.
+        // The SQLite of Robolectric has neither the connection pool nor the journal of a device,
+        // so these only compare the two modes on the host, and say so in their results.
+        measureContention("read_contention_wal", size, firstId);
+        SQLiteDatabase database = mProvider.getDbHelper().getWritableDatabase();
+        database.disableWriteAheadLogging();
+        try {
+            measureContention("read_contention_no_wal", size, firstId);
+        } finally {
+            database.enableWriteAheadLogging();
+        }
+
+        allocated = getAllocatedBytes();
+        start = System.nanoTime();
+        int rowsDeleted = mResolver.delete(BookEntry.CONTENT_URI, null, null);
+        time = System.nanoTime() - start;
+        report("delete_all", size, rowsDeleted, new long[]{time}, getAllocatedBytes() - allocated);
+    }
+
+    private interface Operation {
+        void run();
+    }
+
+    /**
+     * Warm the given operation up, then time it and report the time of each of its operations.
+     */
+    private void measure(String name, int size, int operations, Operation operation) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long[] times = new long[ITERATIONS];
+        long allocated = getAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            times[i] = System.nanoTime() - start;
+        }
+        report(name, size, operations, times, getAllocatedBytes() - allocated);
+    }
+
+    /**
+     * Time writes of the given column of single books on the database of the provider, with
+     * content values given to {@link SQLiteDatabase#update}, reported with the suffix _values,
+     * and with a statement compiled once, reported with the suffix _statement. The values
+     * written are below the given bound.
+     */
+    private void measureColumnUpdate(String name, final String column, final int bound,
+                                     final int size, final long firstId) throws IOException {
+        final SQLiteDatabase database = mProvider.getDbHelper().getWritableDatabase();
+        final String where = BookEntry._ID + " = ?";
+        measure(name + "_values", size, OPERATIONS, new Operation() {
+            int mNext;
+
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    values.put(column, mNext % bound);
+                    long id = firstId + mNext++ % size;
+                    database.update(BookEntry.TABLE_NAME, values, where,
+                            new String[]{String.valueOf(id)});
+                }
+            }
+        });
+
+        final SQLiteStatement statement = database.compileStatement("UPDATE "
+                + BookEntry.TABLE_NAME + " SET " + column + " = ? WHERE " + where);
+        try {
+            measure(name + "_statement", size, OPERATIONS, new Operation() {
+                int mNext;
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        statement.bindLong(1, mNext % bound);
+                        statement.bindLong(2, firstId + mNext++ % size);
+                        statement.executeUpdateDelete();
+                    }
+                }
+            });
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Time reading every row of the given query into the cursor windows of its cursor, and
+     * report the time per row, and the bytes per row a window takes with the rows each window
+     * holds. The bytes are counted from the values read, as a window of the platform stores them:
+     * text as UTF-8 with a terminating null, numbers in 8 bytes, and a slot for every field.
+     */
+    private void measureWindowFill(String name, int size, String sql) throws IOException {
+        SQLiteDatabase database = mProvider.getDbHelper().getReadableDatabase();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            fillWindows(database, sql);
+        }
+        long[] times = new long[ITERATIONS];
+        int rows = 0;
+        long allocated = getAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            rows = fillWindows(database, sql);
+            times[i] = System.nanoTime() - start;
+        }
+        allocated = getAllocatedBytes() - allocated;
+
+        long bytes = 0;
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    bytes += FIELD_SLOT_BYTES;
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_STRING:
+                            bytes += cursor.getString(column).getBytes(UTF_8).length + 1;
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            bytes += cursor.getBlob(column).length;
+                            break;
+                        default:
+                            // Numbers are held in the slot itself, and so is null
+                            break;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        int perIteration = Math.max(rows, 1);
+        double bytesPerRow = (double) bytes / perIteration;
+        String result = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"rows\":%d,\"label\":\"%s\",\"iterations\":%d,"
+                        + "\"operations\":%d,\"ns_per_op\":%.1f,\"window_bytes_per_row\":%.1f,"
+                        + "\"rows_per_window\":%d,\"bytes_per_op\":%.1f,\"timestamp\":%d}\n",
+                name, size, escape(mLabel), times.length, rows,
+                (double) total / times.length / perIteration, bytesPerRow,
+                (int) (WINDOW_BYTES / Math.max(bytesPerRow, 1)),
+                ALLOCATIONS == null ? -1.0 : (double) allocated / times.length / perIteration,
+                System.currentTimeMillis());
+        write(result);
+    }
+
+    /**
+     * Read every row of the given query, which fills the windows of its cursor one after the
+     * other, and returns the number of rows.
+     */
+    private static int fillWindows(SQLiteDatabase database, String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            int rows = cursor.getCount();
+            while (cursor.moveToNext()) {
+                // Moving into a row past the window fills the next one
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Time exports of every book in the given format to a writer that discards them, so that
+     * the disk isn't timed, then report the rows exported per second.
+     */
+    private void measureExport(BookExporter.Format format, int size) throws IOException {
+        BookExporter exporter = new BookExporter(mResolver);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            exporter.export(new CountingWriter(), format);
+        }
+        long[] times = new long[ITERATIONS];
+        int rows = 0;
+        long chars = 0;
+        long allocated = getAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            CountingWriter writer = new CountingWriter();
+            long start = System.nanoTime();
+            BookExporter.Result result = exporter.export(writer, format);
+            times[i] = System.nanoTime() - start;
+            rows = result.mRowCount;
+            chars = writer.mCount;
+        }
+        allocated = getAllocatedBytes() - allocated;
+
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        double nsPerRow = (double) total / times.length / Math.max(rows, 1);
+        String result = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"rows\":%d,\"label\":\"%s\",\"iterations\":%d,"
+                        + "\"operations\":%d,\"ns_per_op\":%.1f,\"rows_per_s\":%.0f,"
+                        + "\"chars_per_row\":%.1f,\"bytes_per_op\":%.1f,\"timestamp\":%d}\n",
+                "export_" + format.name().toLowerCase(Locale.US), size, escape(mLabel),
+                times.length, rows, nsPerRow, 1e9 / nsPerRow, (double) chars / Math.max(rows, 1),
+                ALLOCATIONS == null ? -1.0 : (double) allocated / times.length / Math.max(rows, 1),
+                System.currentTimeMillis());
+        write(result);
+    }
+
+    /**
+     * Discards what is written to it, only counting the characters.
+     */
+    private static class CountingWriter extends Writer {
+        long mCount;
+
+        @Override
+        public void write(int c) {
+            mCount++;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            mCount += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            mCount += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Time reads of single pages of the catalogue while another thread imports books, chunk
+     * after chunk, and deletes them again, then report the median and 99th percentile of the
+     * reads.
+     */
+    private void measureContention(String name, final int size, final long firstId)
+            throws IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicBoolean stop = new AtomicBoolean();
+        Future<Void> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                int next = size;
+                while (!stop.get()) {
+                    ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = createBook(next++);
+                    }
+                    mResolver.bulkInsert(BookEntry.CONTENT_URI, chunk);
+                    // Keep the first books only, so that the pages read are all there
+                    mResolver.delete(BookEntry.CONTENT_URI, BookEntry._ID + " > ?",
+                            new String[]{String.valueOf(firstId + size - 1)});
+                }
+                return null;
+            }
+        });
+
+        int operations = ITERATIONS * OPERATIONS;
+        long[] times = new long[operations];
+        try {
+            for (int i = -WARMUP_ITERATIONS * OPERATIONS; i < operations; i++) {
+                // Pages all over the table, so that they aren't all in the page cache
+                long afterId = firstId - 1 + Math.abs(i) * 7919L % size;
+                long start = System.nanoTime();
+                Cursor cursor = mResolver.query(BookEntry.buildPageUri(afterId, LIST_PAGE_SIZE),
+                        BookEntry.LIST_COLUMNS, null, null, null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                if (i >= 0) {
+                    times[i] = System.nanoTime() - start;
+                }
+            }
+        } finally {
+            stop.set(true);
+            try {
+                writer.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("The writer of " + name + " failed", e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+        reportPercentiles(name, size, times);
+    }
+
+    /**
+     * Append the result of a benchmark to the output, with the mean, median and 99th percentile
+     * of the given times of single operations. The result is marked as measured on the host
+     * only, as only the contention benchmarks report percentiles and they don't reproduce the
+     * connections of a device.
+     */
+    private void reportPercentiles(String name, int size, long[] times) throws IOException {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted) {
+            total += time;
+        }
+        String result = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"rows\":%d,\"label\":\"%s\",\"operations\":%d,"
+                        + "\"ns_per_op\":%.1f,\"ns_p50\":%d,\"ns_p99\":%d,\"host_only\":true,"
+                        + "\"timestamp\":%d}\n",
+                name, size, escape(mLabel), sorted.length, (double) total / sorted.length,
+                sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.99)],
+                System.currentTimeMillis());
+        write(result);
+    }
+
+    /**
+     * Append the result of a benchmark to the output, with the time per operation of the mean,
+     * fastest and slowest iterations, and the bytes allocated per operation over all of them.
+     */
+    private void report(String name, int size, int operations, long[] times, long allocated)
+            throws IOException {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted) {
+            total += time;
+        }
+        int perIteration = Math.max(operations, 1);
+        String result = String.format(Locale.US,
+                "{\"benchmark\":\"%s\",\"rows\":%d,\"label\":\"%s\",\"iterations\":%d,"
+                        + "\"operations\":%d,\"ns_per_op\":%.1f,\"ns_per_op_min\":%.1f,"
+                        + "\"ns_per_op_max\":%.1f,\"bytes_per_op\":%.1f,\"timestamp\":%d}\n",
+                name, size, escape(mLabel), times.length,
+                operations, (double) total / times.length / perIteration,
+                (double) sorted[0] / perIteration, (double) sorted[sorted.length - 1] / perIteration,
+                ALLOCATIONS == null ? -1.0 : (double) allocated / times.length / perIteration,
+                System.currentTimeMillis());
+        write(result);
+    }
+
+    private void write(String result) throws IOException {
+        mOutput.write(result);
+        mOutput.flush();
+        System.out.print(result);
+    }
+
+    /**
+     * Returns the given text escaped for a JSON string.
+     */
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or 0 if the JVM can't count them.
+     */
+    private static long getAllocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+    }
+
+    /**
+     * Returns the ID of the first book of the table.
+     */
+    private long queryFirstId() {
+        Cursor cursor = mResolver.query(BookEntry.buildPageUri(0, 1), new String[]{BookEntry._ID},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the values of the i-th generated book.
+     */
+    private static ContentValues createBook(int i) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_TITLE, "Book " + i);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i % 1000);
+        values.put(BookEntry.COLUMN_BOOK_TYPE, i % 3);
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 5 + i % 50);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, i % 20);
+        int supplier = i % SUPPLIER_COUNT;
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Supplier " + supplier);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, "555-01" + supplier);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, "orders@supplier" + supplier + ".example.com");
+        return values;
+    }
+}
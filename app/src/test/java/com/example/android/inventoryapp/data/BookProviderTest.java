@@ -0,0 +1,234 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.BookContract.BookEntry;
+import com.example.android.inventoryapp.data.BookContract.SaleEntry;
+import com.example.android.inventoryapp.data.BookContract.SupplierEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the writes of the {@link BookProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookProviderTest {
+
+    /**
+     * Number of threads selling copies at the same time
+     */
+    private static final int THREADS = 8;
+    /**
+     * Number of sales of one copy made by each thread
+     */
+    private static final int SALES_PER_THREAD = 25;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(BookProvider.class, BookContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void concurrentSalesNeverOversell() throws Exception {
+        // Fewer copies than the threads try to sell between them
+        final int stock = THREADS * SALES_PER_THREAD / 2;
+        final Uri uri = mResolver.insert(BookEntry.CONTENT_URI, createBook("Sold out", stock));
+        final String id = String.valueOf(ContentUris.parseId(uri));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<List<Integer>>() {
+                    @Override
+                    public List<Integer> call() throws Exception {
+                        start.await();
+                        List<Integer> stocks = new ArrayList<>();
+                        for (int j = 0; j < SALES_PER_THREAD; j++) {
+                            Bundle result = mResolver.call(BookEntry.CONTENT_URI,
+                                    BookEntry.METHOD_SELL, id, null);
+                            stocks.add(result.getInt(BookEntry.EXTRA_STOCK));
+                        }
+                        return stocks;
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<Integer> stocks = new ArrayList<>();
+            for (Future<List<Integer>> future : futures) {
+                stocks.addAll(future.get());
+            }
+
+            // Every copy was sold exactly once: each sale left a different stock behind, and
+            // the other ones failed
+            List<Integer> sold = new ArrayList<>();
+            int failed = 0;
+            for (int left : stocks) {
+                if (left == -1) {
+                    failed++;
+                } else {
+                    sold.add(left);
+                }
+            }
+            Collections.sort(sold);
+            List<Integer> expected = new ArrayList<>();
+            for (int left = 0; left < stock; left++) {
+                expected.add(left);
+            }
+            assertEquals(expected, sold);
+            assertEquals(THREADS * SALES_PER_THREAD - stock, failed);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, queryLong(uri, BookEntry.COLUMN_BOOK_QUANTITY));
+        assertEquals(0, queryLong(BookEntry.STATS_URI, BookEntry.COLUMN_STATS_ITEMS_IN_STOCK));
+        assertEquals(stock, queryLong(SaleEntry.SUMMARY_URI, SaleEntry.COLUMN_SUMMARY_UNITS_SOLD));
+    }
+
+    @Test
+    public void saleReturnsStockLeft() {
+        Uri uri = mResolver.insert(BookEntry.CONTENT_URI, createBook("Title", 5));
+        String id = String.valueOf(ContentUris.parseId(uri));
+
+        Bundle extras = new Bundle();
+        extras.putInt(BookEntry.EXTRA_QUANTITY, 3);
+        Bundle result = mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL, id, extras);
+        assertEquals(2, result.getInt(BookEntry.EXTRA_STOCK));
+
+        // Too few copies are left, so nothing is sold
+        result = mResolver.call(BookEntry.CONTENT_URI, BookEntry.METHOD_SELL, id, extras);
+        assertEquals(-1, result.getInt(BookEntry.EXTRA_STOCK));
+        assertEquals(2, queryLong(uri, BookEntry.COLUMN_BOOK_QUANTITY));
+        assertEquals(3, queryLong(SaleEntry.SUMMARY_URI, SaleEntry.COLUMN_SUMMARY_UNITS_SOLD));
+    }
+
+    @Test
+    public void bulkInsertKeepsColumnsOutsideTheCompiledInsert() {
+        ContentValues plain = createBook("Plain", 1);
+        ContentValues withThumbnail = createBook("With thumbnail", 2);
+        withThumbnail.put(BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL, "small.webp");
+        withThumbnail.put(BookEntry.COLUMN_BOOK_IMAGE_HASH, "hash");
+
+        assertEquals(2, mResolver.bulkInsert(BookEntry.CONTENT_URI,
+                new ContentValues[]{plain, withThumbnail}));
+
+        Cursor cursor = mResolver.query(BookEntry.CONTENT_URI, new String[]{
+                BookEntry.COLUMN_BOOK_THUMBNAIL_SMALL,
+                BookEntry.COLUMN_BOOK_IMAGE_HASH,
+                BookEntry.COLUMN_BOOK_QUANTITY}, null, null, BookEntry._ID);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertTrue(cursor.isNull(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals("small.webp", cursor.getString(0));
+            assertEquals("hash", cursor.getString(1));
+            assertEquals(2, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(3, queryLong(BookEntry.STATS_URI, BookEntry.COLUMN_STATS_ITEMS_IN_STOCK));
+    }
+
+    @Test
+    public void changingSupplierDeletesTheOneLeftWithoutBooks() {
+        Uri first = mResolver.insert(BookEntry.CONTENT_URI, createBook("First", 1));
+        Uri second = mResolver.insert(BookEntry.CONTENT_URI, createBook("Second", 1));
+        assertEquals(1, countSuppliers());
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Other supplier");
+        supplier.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, "555-0199");
+        supplier.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, "orders@other.example.com");
+
+        // The second book still has the first supplier
+        assertEquals(1, mResolver.update(first, supplier, null, null));
+        assertEquals(2, countSuppliers());
+
+        // Now no book has it, along with a change of price that takes the other path of updates
+        supplier.put(BookEntry.COLUMN_BOOK_PRICE, 12);
+        assertEquals(1, mResolver.update(second, supplier, null, null));
+        assertEquals(1, countSuppliers());
+    }
+
+    @Test
+    public void deletingTheLastBookOfASupplierDeletesIt() {
+        Uri first = mResolver.insert(BookEntry.CONTENT_URI, createBook("First", 1));
+        Uri second = mResolver.insert(BookEntry.CONTENT_URI, createBook("Second", 1));
+        assertEquals(1, countSuppliers());
+
+        // The second book still has the supplier
+        assertEquals(1, mResolver.delete(first, null, null));
+        assertEquals(1, countSuppliers());
+
+        assertEquals(1, mResolver.delete(second, null, null));
+        assertEquals(0, countSuppliers());
+    }
+
+    private int countSuppliers() {
+        Cursor cursor = mResolver.query(SupplierEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the given column of the only row of the given URI.
+     */
+    private long queryLong(Uri uri, String column) {
+        Cursor cursor = mResolver.query(uri, new String[]{column}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getCount());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the values of a book with the given title and quantity.
+     */
+    static ContentValues createBook(String title, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_TITLE, title);
+        values.put(BookEntry.COLUMN_BOOK_TYPE, BookEntry.TYPE_NOVEL);
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 10);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE, "555-0100");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_EMAIL, "orders@supplier.example.com");
+        return values;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link CsvReader}.
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readsRecordsEndedByAnyLineBreak() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b\nc,d\r\ne,f\rg,h\n"), ',');
+        assertRecord(csv, 1, "a", "b");
+        assertRecord(csv, 2, "c", "d");
+        assertRecord(csv, 3, "e", "f");
+        assertRecord(csv, 4, "g", "h");
+        assertEnd(csv);
+    }
+
+    @Test
+    public void keepsLineBreaksOfQuotedFields() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("\"first\r\nsecond\",b\r\nc,d\r\n"), ',');
+        assertRecord(csv, 1, "first\r\nsecond", "b");
+        // The line break in the quoted field counts as a line
+        assertRecord(csv, 3, "c", "d");
+        assertEnd(csv);
+    }
+
+    @Test
+    public void readsDoubledQuotesAsOne() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader(
+                "\"He said \"\"hi\"\"\",\"\"\"\",\"a,b\"\n"), ',');
+        assertRecord(csv, 1, "He said \"hi\"", "\"", "a,b");
+        assertEnd(csv);
+    }
+
+    @Test
+    public void readsLastRecordWithoutLineBreak() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b\nc,\"d\""), ',');
+        assertRecord(csv, 1, "a", "b");
+        assertRecord(csv, 2, "c", "d");
+        assertEnd(csv);
+    }
+
+    @Test
+    public void readsEmptyFields() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader(",\"\",\n\n"), ',');
+        assertRecord(csv, 1, "", "", "");
+        assertRecord(csv, 2, "");
+        assertEnd(csv);
+    }
+
+    @Test
+    public void readsTabSeparatedValues() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b\t\"c\td\"\n"), '\t');
+        assertRecord(csv, 1, "a,b", "c\td");
+        assertEnd(csv);
+    }
+
+    @Test
+    public void rejectsUnterminatedQuote() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b\n\"c,d\ne,f\n"), ',');
+        assertRecord(csv, 1, "a", "b");
+        try {
+            csv.readRecord(new ArrayList<String>());
+            fail("Read an unterminated quoted field");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+    }
+
+    private static void assertRecord(CsvReader csv, int line, String... expected)
+            throws IOException {
+        List<String> fields = new ArrayList<>();
+        assertTrue(csv.readRecord(fields));
+        assertEquals(Arrays.asList(expected), fields);
+        assertEquals(line, csv.getRecordLine());
+    }
+
+    private static void assertEnd(CsvReader csv) throws IOException {
+        assertFalse(csv.readRecord(new ArrayList<String>()));
+    }
+}